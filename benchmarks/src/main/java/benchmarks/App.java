@@ -0,0 +1,352 @@
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Access to the application classes from the benchmarks.
+ * The application lives in the default package, which cannot be imported from a named package
+ * (and JMH benchmarks must be in one), so calls go through method handles instead.
+ * Every handle is a static final constant, which the JIT inlines like a direct call.
+ */
+final class App {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    static final Class<?> PRODUCT = load("Product");
+    static final Class<?> PERSON = load("Person");
+    static final Class<?> PRODUCT_FORMAT = load("ProductFormat");
+    static final Class<?> PRODUCT_STORE = load("ProductStore");
+    static final Class<?> PRODUCT_VIEW = load("ProductView");
+    static final Class<?> CATALOG_CACHE = load("ProductCatalogCache");
+    static final Class<?> PRODUCT_CSV_SOURCE = load("ProductCsvSource");
+    static final Class<?> PARALLEL_CSV_PARSER = load("ParallelCsvParser");
+
+    private static final MethodHandle NEW_PRODUCT = constructor(PRODUCT,
+            String.class, String.class, String.class, double.class);
+    private static final MethodHandle NEW_PERSON = constructor(PERSON,
+            String.class, String.class, String.class, String.class, int.class);
+    private static final MethodHandle WRITE_TO_BUFFER = virtual(PRODUCT, "writeToBuffer",
+            void.class, ByteBuffer.class, int.class);
+    private static final MethodHandle READ_FROM_BUFFER = statik(PRODUCT, "readFromBuffer",
+            PRODUCT, ByteBuffer.class, int.class);
+    private static final MethodHandle WRITE_TO_RANDOM_FILE = virtual(PRODUCT, "writeToRandomFile",
+            void.class, RandomAccessFile.class);
+    private static final MethodHandle READ_FROM_RANDOM_FILE = statik(PRODUCT, "readFromRandomFile",
+            PRODUCT, RandomAccessFile.class);
+    private static final MethodHandle TO_CSV = virtual(PRODUCT, "toCSV", String.class);
+    private static final MethodHandle TO_JSON = virtual(PRODUCT, "toJSON", String.class);
+    private static final MethodHandle TO_XML = virtual(PRODUCT, "toXML", String.class);
+
+    private static final MethodHandle FORMAT_VALUE_OF = statik(PRODUCT_FORMAT, "valueOf",
+            PRODUCT_FORMAT, String.class);
+    private static final MethodHandle ENCODE = virtual(PRODUCT_FORMAT, "encode",
+            void.class, PRODUCT, ByteBuffer.class, int.class);
+    private static final MethodHandle DECODE = virtual(PRODUCT_FORMAT, "decode",
+            PRODUCT, ByteBuffer.class, int.class);
+
+    private static final MethodHandle NEW_STORE = constructor(PRODUCT_STORE,
+            File.class, String.class, PRODUCT_FORMAT);
+    private static final MethodHandle RECORD_COUNT = virtual(PRODUCT_STORE, "getRecordCount", int.class);
+    private static final MethodHandle APPEND_ALL = virtual(PRODUCT_STORE, "appendAll", int.class, List.class);
+    private static final MethodHandle VISIT = virtual(PRODUCT_STORE, "visit",
+            void.class, int.class, int.class, ObjIntConsumer.class);
+    private static final MethodHandle SEARCH = virtual(PRODUCT_STORE, "search", List.class, Predicate.class);
+    private static final MethodHandle FIND_BY_ID = virtual(PRODUCT_STORE, "findById", PRODUCT, String.class);
+
+    private static final MethodHandle VIEW_NAME = virtual(PRODUCT_VIEW, "getName", CharSequence.class);
+    private static final MethodHandle VIEW_COST = virtual(PRODUCT_VIEW, "getCost", double.class);
+    private static final MethodHandle CONTAINS_IGNORE_CASE = statik(PRODUCT_VIEW, "containsIgnoreCase",
+            boolean.class, CharSequence.class, String.class);
+
+    private static final MethodHandle NEW_CACHE = constructor(CATALOG_CACHE, PRODUCT_STORE);
+    private static final MethodHandle CACHE_FIND_BY_NAME = virtual(CATALOG_CACHE, "findByName",
+            load("RecordList"), String.class);
+
+    private static final MethodHandle NEW_CSV_SOURCE = constructor(PRODUCT_CSV_SOURCE,
+            BufferedReader.class, Consumer.class);
+    private static final MethodHandle PRODUCT_PARSE = statik(PRODUCT_CSV_SOURCE, "parse",
+            PRODUCT, CharSequence.class, String[].class);
+    private static final MethodHandle NEW_PARALLEL_PARSER = constructor(PARALLEL_CSV_PARSER,
+            BiFunction.class, int.class);
+    private static final MethodHandle PARALLEL_PARSE = virtual(PARALLEL_CSV_PARSER, "parse",
+            void.class, Path.class, boolean.class, Consumer.class, Consumer.class);
+
+    private App() {
+    }
+
+    static Object newProduct(String name, String description, String id, double cost) {
+        try {
+            return NEW_PRODUCT.invoke(name, description, id, cost);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object newPerson(String id, String firstName, String lastName, String title, int yob) {
+        try {
+            return NEW_PERSON.invoke(id, firstName, lastName, title, yob);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void writeToBuffer(Object product, ByteBuffer buf, int offset) {
+        try {
+            WRITE_TO_BUFFER.invoke(product, buf, offset);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object readFromBuffer(ByteBuffer buf, int offset) {
+        try {
+            return READ_FROM_BUFFER.invoke(buf, offset);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void writeToRandomFile(Object product, RandomAccessFile raf) {
+        try {
+            WRITE_TO_RANDOM_FILE.invoke(product, raf);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object readFromRandomFile(RandomAccessFile raf) {
+        try {
+            return READ_FROM_RANDOM_FILE.invoke(raf);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static String toCSV(Object product) {
+        try {
+            return (String) TO_CSV.invoke(product);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static String toJSON(Object product) {
+        try {
+            return (String) TO_JSON.invoke(product);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static String toXML(Object product) {
+        try {
+            return (String) TO_XML.invoke(product);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object format(String name) {
+        try {
+            return FORMAT_VALUE_OF.invoke(name);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void encode(Object format, Object product, ByteBuffer buf, int offset) {
+        try {
+            ENCODE.invoke(format, product, buf, offset);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object decode(Object format, ByteBuffer buf, int offset) {
+        try {
+            return DECODE.invoke(format, buf, offset);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static AutoCloseable openStore(File file, String mode, Object newFileFormat) {
+        try {
+            return (AutoCloseable) NEW_STORE.invoke(file, mode, newFileFormat);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int recordCount(Object store) {
+        try {
+            return (int) RECORD_COUNT.invoke(store);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int appendAll(Object store, List<Object> products) {
+        try {
+            return (int) APPEND_ALL.invoke(store, products);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void visit(Object store, int from, int to, ObjIntConsumer<Object> visitor) {
+        try {
+            VISIT.invoke(store, from, to, visitor);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static List<?> search(Object store, Predicate<Object> filter) {
+        try {
+            return (List<?>) SEARCH.invoke(store, filter);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object findById(Object store, String id) {
+        try {
+            return FIND_BY_ID.invoke(store, id);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static CharSequence viewName(Object view) {
+        try {
+            return (CharSequence) VIEW_NAME.invoke(view);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static double viewCost(Object view) {
+        try {
+            return (double) VIEW_COST.invoke(view);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static boolean containsIgnoreCase(CharSequence text, String lowerTerm) {
+        try {
+            return (boolean) CONTAINS_IGNORE_CASE.invoke(text, lowerTerm);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object newCache(Object store) {
+        try {
+            return NEW_CACHE.invoke(store);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object cacheFindByName(Object cache, String term) {
+        try {
+            return CACHE_FIND_BY_NAME.invoke(cache, term);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static Iterator<Object> productCsvSource(BufferedReader reader, Consumer<String> corruptRecords) {
+        try {
+            return (Iterator<Object>) NEW_CSV_SOURCE.invoke(reader, corruptRecords);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object newProductParallelParser() {
+        try {
+            BiFunction<CharSequence, String[], Object> parser = (line, fields) -> {
+                try {
+                    return PRODUCT_PARSE.invoke(line, fields);
+                } catch (Throwable t) {
+                    throw rethrow(t);
+                }
+            };
+            return NEW_PARALLEL_PARSER.invoke(parser, 4);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void parallelParse(Object parser, Path file, boolean preserveOrder,
+                              Consumer<Object> records, Consumer<String> corruptRecords) {
+        try {
+            PARALLEL_PARSE.invoke(parser, file, preserveOrder, records, corruptRecords);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    private static Class<?> load(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Application class not on the classpath: " + name, e);
+        }
+    }
+
+    private static MethodHandle constructor(Class<?> owner, Class<?>... parameters) {
+        try {
+            return LOOKUP.findConstructor(owner, MethodType.methodType(void.class, parameters));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle virtual(Class<?> owner, String name, Class<?> returnType, Class<?>... parameters) {
+        try {
+            return LOOKUP.findVirtual(owner, name, MethodType.methodType(returnType, parameters));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle statik(Class<?> owner, String name, Class<?> returnType, Class<?>... parameters) {
+        try {
+            return LOOKUP.findStatic(owner, name, MethodType.methodType(returnType, parameters));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        if (t instanceof IOException) {
+            return new UncheckedIOException((IOException) t);
+        }
+        return new RuntimeException(t);
+    }
+}
@@ -0,0 +1,132 @@
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing product and person CSV text. The *Split benchmarks follow the original readers:
+ * readLine, String.split(","), trim each field, then parse the numbers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class CsvParseBenchmark {
+    private static final long SEED = 42;
+
+    @Param({"10000"})
+    public int lines;
+
+    private String productCsv;
+    private String personCsv;
+    private Path productFile;
+    private Object parallelParser;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(SEED);
+        StringBuilder products = new StringBuilder();
+        StringBuilder people = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            String id = String.format("%06d", i);
+            products.append(id).append(", Product ").append(random.nextInt(1000))
+                    .append(", Description of product ").append(i)
+                    .append(", ").append(random.nextInt(100_000) / 100.0).append('\n');
+            people.append(id).append(", First").append(random.nextInt(1000))
+                    .append(", Last").append(random.nextInt(1000))
+                    .append(", Esq., ").append(1000 + random.nextInt(1000)).append('\n');
+        }
+        productCsv = products.toString();
+        personCsv = people.toString();
+
+        productFile = Files.createTempFile("products", ".csv");
+        Files.writeString(productFile, productCsv, StandardCharsets.UTF_8);
+        parallelParser = App.newProductParallelParser();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(productFile);
+    }
+
+    @Benchmark
+    public List<Object> productReaderSplit() throws IOException {
+        List<Object> products = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new StringReader(productCsv));
+        String rec;
+        while ((rec = reader.readLine()) != null) {
+            String[] fields = rec.split(",");
+            if (fields.length == 4) {
+                products.add(App.newProduct(fields[1].trim(), fields[2].trim(), fields[0].trim(),
+                        Double.parseDouble(fields[3].trim())));
+            }
+        }
+        return products;
+    }
+
+    @Benchmark
+    public List<Object> productCsvSource() {
+        List<Object> products = new ArrayList<>();
+        Iterator<Object> source = App.productCsvSource(
+                new BufferedReader(new StringReader(productCsv)), corrupt -> { });
+        while (source.hasNext()) {
+            products.add(source.next());
+        }
+        return products;
+    }
+
+    @Benchmark
+    public List<Object> productParallelOrdered() {
+        List<Object> products = new ArrayList<>();
+        App.parallelParse(parallelParser, productFile, true, products::add, corrupt -> { });
+        return products;
+    }
+
+    @Benchmark
+    public long productParallelUnordered() {
+        LongAdder count = new LongAdder();
+        App.parallelParse(parallelParser, productFile, false, product -> count.increment(), corrupt -> { });
+        return count.sum();
+    }
+
+    @Benchmark
+    public List<Object> personReaderSplit() throws IOException {
+        List<Object> people = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new StringReader(personCsv));
+        String rec;
+        while ((rec = reader.readLine()) != null) {
+            String[] fields = rec.split(",");
+            if (fields.length == 5) {
+                people.add(App.newPerson(fields[0].trim(), fields[1].trim(), fields[2].trim(),
+                        fields[3].trim(), Integer.parseInt(fields[4].trim())));
+            }
+        }
+        return people;
+    }
+}
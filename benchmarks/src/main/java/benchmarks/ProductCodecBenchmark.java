@@ -0,0 +1,117 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and decoding a single Product record, and its text conversions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Thread)
+public class ProductCodecBenchmark {
+    private Object product;
+    private Object v1;
+    private Object v2;
+    private ByteBuffer v1Record;
+    private ByteBuffer v2Record;
+    private ByteBuffer scratch;
+    private File file;
+    private RandomAccessFile raf;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        product = App.newProduct("Mithril Shirt", "Light as a feather and hard as dragon scales", "000042", 1250.0);
+        v1 = App.format("V1");
+        v2 = App.format("V2");
+
+        scratch = ByteBuffer.allocate(512);
+        v1Record = ByteBuffer.allocate(512);
+        App.writeToBuffer(product, v1Record, 0);
+        v2Record = ByteBuffer.allocate(512);
+        App.encode(v2, product, v2Record, 0);
+
+        file = File.createTempFile("product-codec", ".dat");
+        raf = new RandomAccessFile(file, "rw");
+        App.writeToRandomFile(product, raf);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        raf.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public ByteBuffer encodeV1() {
+        App.writeToBuffer(product, scratch, 0);
+        return scratch;
+    }
+
+    @Benchmark
+    public Object decodeV1() {
+        return App.readFromBuffer(v1Record, 0);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeV2() {
+        App.encode(v2, product, scratch, 0);
+        return scratch;
+    }
+
+    @Benchmark
+    public Object decodeV2() {
+        return App.decode(v2, v2Record, 0);
+    }
+
+    @Benchmark
+    public Object decodeV1Generic() {
+        return App.decode(v1, v1Record, 0);
+    }
+
+    @Benchmark
+    public void writeToRandomFile() throws IOException {
+        raf.seek(0);
+        App.writeToRandomFile(product, raf);
+    }
+
+    @Benchmark
+    public Object readFromRandomFile() throws IOException {
+        raf.seek(0);
+        return App.readFromRandomFile(raf);
+    }
+
+    @Benchmark
+    public String toCSV() {
+        return App.toCSV(product);
+    }
+
+    @Benchmark
+    public String toJSON() {
+        return App.toJSON(product);
+    }
+
+    @Benchmark
+    public String toXML() {
+        return App.toXML(product);
+    }
+}
@@ -0,0 +1,135 @@
+package benchmarks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Full-file scans and searches over a generated product data file.
+ * Data files are generated from a fixed seed into java.io.tmpdir and reused between runs,
+ * so every run scans exactly the same bytes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class ProductScanBenchmark {
+    private static final long SEED = 42;
+    private static final int BATCH = 10_000;
+    private static final String[] WORDS = {
+            "Elven", "Dwarven", "Mithril", "Lembas", "Pipeweed", "Rope", "Cloak", "Lantern",
+            "Axe", "Sword", "Shield", "Wine", "Ale", "Bread", "Pony", "Ring", "Map", "Boots"
+    };
+
+    @Param({"1000", "1000000"})
+    public int records;
+
+    @Param({"V1", "V2"})
+    public String format;
+
+    private AutoCloseable store;
+    private Object cache;
+    private String[] ids;
+    private int nextId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        File file = new File(System.getProperty("java.io.tmpdir"),
+                "product-bench-" + format + "-" + records + ".dat");
+        generate(file);
+
+        store = App.openStore(file, "r", App.format(format));
+        cache = App.newCache(store);
+
+        Random random = new Random(SEED);
+        ids = new String[1024];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = String.format("%06d", random.nextInt(Math.min(records, 1_000_000)));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        store.close();
+    }
+
+    /**
+     * Visits every record without materializing any Products
+     */
+    @Benchmark
+    public double fullScan() {
+        double[] total = new double[1];
+        App.visit(store, 0, App.recordCount(store), (view, recordNumber) -> total[0] += App.viewCost(view));
+        return total[0];
+    }
+
+    /**
+     * Substring search on name, scanning the file
+     */
+    @Benchmark
+    public List<?> searchByNameScan() {
+        return App.search(store, view -> App.containsIgnoreCase(App.viewName(view), "mithril rope"));
+    }
+
+    /**
+     * Two-letter substring search on name against the in-memory name column
+     */
+    @Benchmark
+    public Object searchByNameCache() {
+        return App.cacheFindByName(cache, "xq");
+    }
+
+    @Benchmark
+    public void findById(Blackhole blackhole) {
+        blackhole.consume(App.findById(store, ids[nextId++ & (ids.length - 1)]));
+    }
+
+    /**
+     * Writes the data file unless an identical one is already there
+     */
+    private void generate(File file) throws Exception {
+        if (file.exists()) {
+            try (AutoCloseable existing = App.openStore(file, "r", App.format(format))) {
+                if (App.recordCount(existing) == records) {
+                    return;
+                }
+            }
+            file.delete();
+        }
+
+        Random random = new Random(SEED);
+        try (AutoCloseable out = App.openStore(file, "rw", App.format(format))) {
+            List<Object> batch = new ArrayList<>(BATCH);
+            for (int i = 0; i < records; i++) {
+                String name = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)];
+                String description = name + " from the shire, lot " + random.nextInt(10_000);
+                batch.add(App.newProduct(name, description, String.format("%06d", i % 1_000_000),
+                        random.nextInt(100_000) / 100.0));
+                if (batch.size() == BATCH) {
+                    App.appendAll(out, batch);
+                    batch.clear();
+                }
+            }
+            App.appendAll(out, batch);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Appends Products to a data file from many threads, and optionally many processes, at once.
+ * Each append first reserves its record slots, then writes them with a positional FileChannel
+ * write that needs no lock, so two appends can never overlap and writers do not wait for each
+ * other's I/O. Finished writes are committed through the ProductLockFile, so readers only ever
+ * count records that are completely written.
+ *
+ * Within one process, slots are reserved by bumping an AtomicLong tail. In shared mode they are
+ * reserved through the lock file instead, so separate processes share one sequence.
+ * Only shared mode can run alongside ProductCompactor: a reservation made through the lock file
+ * is refused once the file has been compacted, and the appender reopens the new file and tries
+ * again. Local mode assumes nothing else writes to the file, compaction included.
+ *
+ * Records are written straight to the file, so the store's open indexes are not updated here;
+ * they pick the new records up on their next update() after ProductStore.refresh().
+ */
+public class ConcurrentProductAppender implements Closeable {
+    private final ProductFormat format;
+    private final int recordSize;
+    private final File file;
+    private final ProductLockFile lockFile;
+    private final boolean shared;
+    private final AtomicLong tail;
+    // One reusable write buffer per appending thread, grown to fit the largest batch it has written
+    private final ThreadLocal<ByteBuffer> buffers;
+    // Appends share the read lock; switching to a compacted file takes the write lock
+    private final ReentrantReadWriteLock reopenLock = new ReentrantReadWriteLock();
+    private FileChannel channel;
+    private long generation;
+
+    /**
+     * Opens an appender for a store's data file
+     * @param store The store whose file to append to
+     * @param shared true to coordinate with other processes through the lock file,
+     *               false if this is the only process writing to the file
+     * @throws IOException If the data or lock file cannot be opened
+     */
+    public ConcurrentProductAppender(ProductStore store, boolean shared) throws IOException {
+        this.format = store.getFormat();
+        this.recordSize = format.recordSize();
+        this.file = store.getFile();
+        this.generation = ProductLockFile.generationOf(file);
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        this.lockFile = new ProductLockFile(store, true);
+        this.shared = shared;
+        this.tail = new AtomicLong(Math.max(fileRecordCount(), lockFile.getCommittedCount()));
+        this.buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(recordSize));
+    }
+
+    /**
+     * Appends a Product in the next free record slot
+     * @param product The product to write
+     * @return The record number the product was written to
+     * @throws IOException If an I/O error occurs
+     */
+    public int append(Product product) throws IOException {
+        ByteBuffer buf = buffer(recordSize);
+        format.encode(product, buf, 0);
+
+        long recordNumber = reserve(1);
+        try {
+            lockFile.write(recordNumber, recordNumber + 1, () -> writeFully(buf, position(recordNumber)),
+                    channel, format);
+        } finally {
+            reopenLock.readLock().unlock();
+        }
+        return (int) recordNumber;
+    }
+
+    /**
+     * Appends a batch of Products in consecutive record slots with a single write
+     * @param products The products to write, in order
+     * @return The record number the first product was written to
+     * @throws IOException If an I/O error occurs
+     */
+    public int appendAll(List<Product> products) throws IOException {
+        ByteBuffer batch = buffer(products.size() * recordSize);
+        for (int i = 0; i < products.size(); i++) {
+            format.encode(products.get(i), batch, i * recordSize);
+        }
+
+        long firstRecord = reserve(products.size());
+        try {
+            lockFile.write(firstRecord, firstRecord + products.size(), () -> writeFully(batch, position(firstRecord)),
+                    channel, format);
+        } finally {
+            reopenLock.readLock().unlock();
+        }
+        return (int) firstRecord;
+    }
+
+    /**
+     * Returns the number of record slots handed out so far, written or not
+     * @return The highest reserved record number + 1 seen by this appender
+     */
+    public long getReservedCount() {
+        return tail.get();
+    }
+
+    /**
+     * Forces every record written so far to the storage device
+     * @throws IOException If an I/O error occurs
+     */
+    public void force() throws IOException {
+        reopenLock.readLock().lock();
+        try {
+            channel.force(false);
+        } finally {
+            reopenLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns this thread's write buffer, cleared and limited to size bytes, growing it first if needed
+     */
+    private ByteBuffer buffer(int size) {
+        ByteBuffer buf = buffers.get();
+        if (buf.capacity() < size) {
+            buf = ByteBuffer.allocateDirect(Math.max(size, buf.capacity() * 2));
+            buffers.set(buf);
+        }
+        buf.clear().limit(size);
+        return buf;
+    }
+
+    /**
+     * Claims count consecutive record slots in the current data file.
+     * Returns holding the read lock, which the caller releases once the slots are committed.
+     * @return The first record number claimed
+     */
+    private long reserve(int count) throws IOException {
+        while (true) {
+            reopenLock.readLock().lock();
+            long first;
+            try {
+                first = shared ? lockFile.reserve(count, fileRecordCount(), generation) : tail.getAndAdd(count);
+            } catch (IOException | RuntimeException e) {
+                reopenLock.readLock().unlock();
+                throw e;
+            }
+            if (first >= 0) {
+                tail.accumulateAndGet(first + count, Math::max);
+                return first;
+            }
+
+            long staleGeneration = generation;
+            reopenLock.readLock().unlock();
+            reopen(staleGeneration);
+        }
+    }
+
+    /**
+     * Switches to the data file that replaced the one open now, unless another thread already has
+     */
+    private void reopen(long staleGeneration) throws IOException {
+        reopenLock.writeLock().lock();
+        try {
+            if (generation == staleGeneration) {
+                // Read before opening, so a second compaction in between is noticed next time
+                generation = lockFile.getGeneration();
+                channel.close();
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+                tail.set(lockFile.getCommittedCount());
+            }
+        } finally {
+            reopenLock.writeLock().unlock();
+        }
+    }
+
+    private long fileRecordCount() throws IOException {
+        return Math.max(0, (channel.size() - format.headerSize()) / recordSize);
+    }
+
+    private long position(long recordNumber) {
+        return format.headerSize() + recordNumber * recordSize;
+    }
+
+    private void writeFully(ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+
+    /**
+     * Closes the data and lock files
+     * @throws IOException If an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        reopenLock.writeLock().lock();
+        try {
+            channel.close();
+        } finally {
+            reopenLock.writeLock().unlock();
+        }
+        lockFile.close();
+    }
+}
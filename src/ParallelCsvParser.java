@@ -0,0 +1,241 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * Parses a large CSV file on several cores.
+ * The file is split into byte ranges whose edges are moved forward to the next newline, so
+ * every line belongs to exactly one range. Each range is memory-mapped and parsed by its own
+ * worker into records (for example with ProductCsvSource::parse or PersonPipeline::parse).
+ *
+ * With ordered output, records reach the consumer in file order, one range at a time, and only
+ * a few ranges are parsed ahead of the one being consumed, so memory use stays flat however big
+ * the file is. Otherwise each worker hands records over as soon as they are parsed, from its own
+ * thread.
+ */
+public class ParallelCsvParser<T> {
+    // Lines are decoded as UTF-8; readers that read small files line by line instead use it too
+    public static final Charset CHARSET = StandardCharsets.UTF_8;
+
+    // Ranges are at least this long so small files are not over-split
+    private static final long MIN_RANGE_BYTES = 1 << 20;
+
+    // ...and at most this long, so the ranges parsed ahead in ordered mode stay small
+    private static final long MAX_RANGE_BYTES = 16 << 20;
+
+    private final BiFunction<CharSequence, String[], T> lineParser;
+    private final int fieldCount;
+    private final int threads;
+
+    /**
+     * Creates a parser that uses every core
+     * @param lineParser Turns one line into a record, or null if the line is corrupt
+     * @param fieldCount Size of the scratch field array passed to lineParser
+     */
+    public ParallelCsvParser(BiFunction<CharSequence, String[], T> lineParser, int fieldCount) {
+        this(lineParser, fieldCount, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a parser
+     * @param lineParser Turns one line into a record, or null if the line is corrupt
+     * @param fieldCount Size of the scratch field array passed to lineParser
+     * @param threads Number of worker threads
+     */
+    public ParallelCsvParser(BiFunction<CharSequence, String[], T> lineParser, int fieldCount, int threads) {
+        this.lineParser = lineParser;
+        this.fieldCount = fieldCount;
+        this.threads = threads;
+    }
+
+    /**
+     * Returns true if a file is big enough to be split into more than one range.
+     * Smaller files parse just as fast on one thread, which can start handing records over sooner.
+     * @param fileSize The size of the file in bytes
+     * @return true if the file would be parsed on more than one thread
+     */
+    public static boolean isWorthSplitting(long fileSize) {
+        return fileSize >= 2 * MIN_RANGE_BYTES;
+    }
+
+    /**
+     * Parses every line of a file
+     * @param file The CSV file (UTF-8)
+     * @param preserveOrder true to deliver records in file order on the calling thread,
+     *                      false to deliver them from the workers as soon as they are parsed
+     * @param records Receives each parsed record (must be thread-safe if preserveOrder is false)
+     * @param corruptRecords Receives each line lineParser rejected (same threading as records)
+     * @throws IOException If the file cannot be read, or holds a line of 2 GB or more
+     * @throws InterruptedException If the calling thread is interrupted while waiting
+     */
+    public void parse(Path file, boolean preserveOrder, Consumer<T> records, Consumer<String> corruptRecords)
+            throws IOException, InterruptedException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] bounds = splitAtLines(channel);
+            ExecutorService workers = Executors.newFixedThreadPool(threads);
+            try {
+                // In ordered mode, parsed ranges wait for the consumer, so only a few are started ahead
+                Deque<Future<List<Object>>> ranges = new ArrayDeque<>();
+                int next = 0;
+                while (next + 1 < bounds.length || !ranges.isEmpty()) {
+                    while (next + 1 < bounds.length && (!preserveOrder || ranges.size() <= threads)) {
+                        long start = bounds[next];
+                        long end = bounds[next + 1];
+                        ranges.add(workers.submit(() -> parseRange(channel, start, end, preserveOrder,
+                                records, corruptRecords)));
+                        next++;
+                    }
+
+                    List<Object> parsed = ranges.remove().get();
+                    if (preserveOrder) {
+                        deliver(parsed, records, corruptRecords);
+                    }
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) e.getCause()).getCause();
+                }
+                throw new IOException(e.getCause());
+            } finally {
+                workers.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Picks range boundaries roughly evenly spaced through the file, each just after a newline
+     */
+    private long[] splitAtLines(FileChannel channel) throws IOException {
+        long size = channel.size();
+        int rangeCount = (int) Math.max(Math.max(1, Math.min(threads * 4L, size / MIN_RANGE_BYTES)),
+                (size + MAX_RANGE_BYTES - 1) / MAX_RANGE_BYTES);
+        long[] bounds = new long[rangeCount + 1];
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+
+        for (int i = 1; i < rangeCount; i++) {
+            long position = Math.max(bounds[i - 1], size * i / rangeCount);
+            bounds[i] = nextLineStart(channel, position, probe);
+        }
+        bounds[rangeCount] = size;
+        return bounds;
+    }
+
+    /**
+     * Returns the position just after the first newline at or after position (or end of file)
+     */
+    private static long nextLineStart(FileChannel channel, long position, ByteBuffer probe) throws IOException {
+        while (true) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read <= 0) {
+                return channel.size();
+            }
+            for (int i = 0; i < read; i++) {
+                if (probe.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Parses the lines in one range. In unordered mode the records are delivered straight away;
+     * in ordered mode they are returned (corrupt lines wrapped in CorruptLine) for the caller to deliver.
+     */
+    private List<Object> parseRange(FileChannel channel, long start, long end, boolean preserveOrder,
+                                    Consumer<T> records, Consumer<String> corruptRecords) {
+        List<Object> parsed = new ArrayList<>();
+        if (end <= start) {
+            return parsed;
+        }
+
+        String[] fields = new String[fieldCount];
+        try {
+            // Map the range in pieces of under 2 GB, each ending on a line boundary
+            long pieceStart = start;
+            while (pieceStart < end) {
+                long pieceEnd = Math.min(end, pieceStart + Integer.MAX_VALUE);
+                MappedByteBuffer piece = channel.map(FileChannel.MapMode.READ_ONLY, pieceStart, pieceEnd - pieceStart);
+                int limit = piece.limit();
+                if (pieceEnd < end) {
+                    while (limit > 0 && piece.get(limit - 1) != '\n') {
+                        limit--;
+                    }
+                    if (limit == 0) {
+                        throw new IOException("Line at byte " + pieceStart + " is too long to parse");
+                    }
+                }
+
+                int lineStart = 0;
+                for (int i = 0; i <= limit; i++) {
+                    if (i == limit || piece.get(i) == '\n') {
+                        int lineEnd = i > lineStart && piece.get(i - 1) == '\r' ? i - 1 : i;
+                        if (lineEnd > lineStart || i < limit) {
+                            String line = decode(piece, lineStart, lineEnd);
+                            T record = lineParser.apply(line, fields);
+                            if (!preserveOrder) {
+                                if (record != null) {
+                                    records.accept(record);
+                                } else {
+                                    corruptRecords.accept(line);
+                                }
+                            } else {
+                                parsed.add(record != null ? record : new CorruptLine(line));
+                            }
+                        }
+                        lineStart = i + 1;
+                    }
+                }
+                pieceStart += limit;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return parsed;
+    }
+
+    private static String decode(ByteBuffer buf, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buf.get(start, bytes);
+        return new String(bytes, CHARSET);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void deliver(List<Object> parsed, Consumer<T> records, Consumer<String> corruptRecords) {
+        for (Object item : parsed) {
+            if (item instanceof CorruptLine) {
+                corruptRecords.accept(((CorruptLine) item).line);
+            } else {
+                records.accept((T) item);
+            }
+        }
+    }
+
+    /**
+     * Marks a rejected line in an ordered range's output
+     */
+    private static class CorruptLine {
+        final String line;
+
+        CorruptLine(String line) {
+            this.line = line;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+/**
+ * Multi-core scan over a product data file.
+ * Fixed-size records make the file easy to split: the record range is divided in half until
+ * each piece is one block, every block is read with a positional read on a ForkJoinPool worker,
+ * and the matches from each half are joined back together so results stay in record order.
+ * Given a zone test (see ProductZoneMap), each worker only reads the zones of its block that pass.
+ */
+public class ParallelProductScan {
+    // Ranges at or below this size are scanned by one worker
+    public static final int BLOCK_RECORDS = ProductStore.SCAN_BATCH_RECORDS;
+
+    // One reusable read buffer per worker thread, big enough for a block in any format
+    private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(
+            () -> ByteBuffer.allocateDirect(BLOCK_RECORDS * ProductFormat.MAX_RECORD_SIZE));
+
+    private final ProductStore store;
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a scan that runs on the common ForkJoinPool
+     * @param store The product store to scan
+     */
+    public ParallelProductScan(ProductStore store) {
+        this(store, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a scan that runs on the given pool
+     * @param store The product store to scan
+     * @param pool The pool to run scan tasks on
+     */
+    public ParallelProductScan(ProductStore store, ForkJoinPool pool) {
+        this.store = store;
+        this.pool = pool;
+    }
+
+    /**
+     * Returns every Product in the store that matches a filter, in record order
+     * @param filter The test each record must pass (called from several threads at once)
+     * @return The matching products
+     * @throws IOException If an I/O error occurs
+     */
+    public List<Product> search(Predicate<ProductView> filter) throws IOException {
+        return search(filter, zone -> true);
+    }
+
+    /**
+     * Returns every Product in the store that matches a filter, reading only the zones that pass a test
+     * @param filter The test each record must pass (called from several threads at once)
+     * @param zones The test each zone must pass to be read (called from several threads at once)
+     * @return The matching products
+     * @throws IOException If an I/O error occurs
+     */
+    public List<Product> search(Predicate<ProductView> filter, IntPredicate zones) throws IOException {
+        return scan(0, store.getRecordCount(), filter, zones).products;
+    }
+
+    /**
+     * Returns the record numbers of every Product in the store that matches a filter, in order
+     * @param filter The test each record must pass (called from several threads at once)
+     * @return The matching record numbers
+     * @throws IOException If an I/O error occurs
+     */
+    public RecordList searchRecords(Predicate<ProductView> filter) throws IOException {
+        return scan(0, store.getRecordCount(), filter, zone -> true).records;
+    }
+
+    private Matches scan(int from, int to, Predicate<ProductView> filter, IntPredicate zones) throws IOException {
+        try {
+            return pool.invoke(new ScanTask(from, Math.min(to, store.getRecordCount()), filter, zones));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Matching record numbers and products from one part of the file
+     */
+    private static class Matches {
+        final RecordList records = new RecordList();
+        final List<Product> products = new ArrayList<>();
+
+        void add(int recordNumber, Product product) {
+            records.add(recordNumber);
+            products.add(product);
+        }
+
+        Matches append(Matches later) {
+            for (int i = 0; i < later.records.size(); i++) {
+                add(later.records.get(i), later.products.get(i));
+            }
+            return this;
+        }
+    }
+
+    /**
+     * Scans a record range, splitting it in half until it fits in one block
+     */
+    private class ScanTask extends RecursiveTask<Matches> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final Predicate<ProductView> filter;
+        private final IntPredicate zones;
+
+        ScanTask(int from, int to, Predicate<ProductView> filter, IntPredicate zones) {
+            this.from = from;
+            this.to = to;
+            this.filter = filter;
+            this.zones = zones;
+        }
+
+        @Override
+        protected Matches compute() {
+            if (to - from <= BLOCK_RECORDS) {
+                return scanBlock();
+            }
+
+            int middle = from + (to - from) / 2;
+            ScanTask later = new ScanTask(middle, to, filter, zones);
+            later.fork();
+            Matches earlier = new ScanTask(from, middle, filter, zones).compute();
+            return earlier.append(later.join());
+        }
+
+        private Matches scanBlock() {
+            Matches matches = new Matches();
+            int start = from;
+            while (start < to) {
+                // Each run of zones that pass is read with one call
+                int end = start;
+                while (end < to && zones.test(end / ProductZoneMap.ZONE_RECORDS)) {
+                    end = Math.min(to, (end / ProductZoneMap.ZONE_RECORDS + 1) * ProductZoneMap.ZONE_RECORDS);
+                }
+                if (end > start) {
+                    scanRun(start, end, matches);
+                    start = end;
+                } else {
+                    start = (start / ProductZoneMap.ZONE_RECORDS + 1) * ProductZoneMap.ZONE_RECORDS;
+                }
+            }
+            return matches;
+        }
+
+        private void scanRun(int start, int end, Matches matches) {
+            ProductFormat format = store.getFormat();
+            int recordSize = format.recordSize();
+            ProductView view = new ProductView(format);
+            ByteBuffer buf = BUFFERS.get();
+            buf.clear().limit((end - start) * recordSize);
+            try {
+                store.readRecords(buf, start);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            for (int i = 0; i < end - start; i++) {
+                view.wrap(buf, i * recordSize);
+                if (!view.isDeleted() && filter.test(view)) {
+                    matches.add(start + i, view.toProduct());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * Reads a person CSV file (ID, first name, last name, title, YOB per line) in three stages:
+ * one thread reads batches of lines, several threads parse them into Person objects, and the
+ * calling thread consumes the people in file order.
+ *
+ * The stages are joined by bounded queues, and the reader has to take a permit for every batch
+ * it starts; the permit is only returned once the consumer has finished that batch. A slow
+ * consumer therefore stops the reader, and memory use stays flat however big the file is.
+ */
+public class PersonPipeline {
+    public static final int FIELDS_LENGTH = 5;
+
+    private final int parserThreads;
+    private final int batchSize;
+    private final int maxBatchesInFlight;
+
+    /**
+     * Creates a pipeline with one parser per spare core
+     */
+    public PersonPipeline() {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), 1024, 16);
+    }
+
+    /**
+     * Creates a pipeline
+     * @param parserThreads Number of threads parsing lines
+     * @param batchSize Number of lines passed between stages at a time
+     * @param maxBatchesInFlight Most batches read but not yet consumed at any moment
+     */
+    public PersonPipeline(int parserThreads, int batchSize, int maxBatchesInFlight) {
+        this.parserThreads = parserThreads;
+        this.batchSize = batchSize;
+        this.maxBatchesInFlight = Math.max(maxBatchesInFlight, parserThreads);
+    }
+
+    /**
+     * Parses one CSV line
+     * @param line The line to parse
+     * @param fields Scratch array of at least FIELDS_LENGTH entries
+     * @return The Person, or null if the line is not a valid person
+     */
+    public static Person parse(CharSequence line, String[] fields) {
+        if (CsvSplitter.split(line, fields) != FIELDS_LENGTH) {
+            return null;
+        }
+        try {
+            return new Person(fields[0], fields[1], fields[2], fields[3], Integer.parseInt(fields[4]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads every line from reader and passes the people to the consumer in file order.
+     * The consumer runs on the calling thread.
+     * @param reader The person file to read (closed when done)
+     * @param people Receives each valid person
+     * @param corruptRecords Receives each line that does not hold a valid person
+     * @throws IOException If the file cannot be read
+     * @throws InterruptedException If the calling thread is interrupted while waiting
+     */
+    public void run(BufferedReader reader, Consumer<Person> people, Consumer<String> corruptRecords)
+            throws IOException, InterruptedException {
+        BlockingQueue<Batch> lines = new ArrayBlockingQueue<>(maxBatchesInFlight);
+        BlockingQueue<Batch> parsed = new ArrayBlockingQueue<>(maxBatchesInFlight);
+        Semaphore inFlight = new Semaphore(maxBatchesInFlight);
+        ExecutorService workers = Executors.newFixedThreadPool(parserThreads + 1, runnable -> {
+            Thread thread = new Thread(runnable, "person-pipeline");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            workers.execute(() -> readBatches(reader, lines, inFlight));
+            for (int i = 0; i < parserThreads; i++) {
+                workers.execute(() -> parseBatches(lines, parsed));
+            }
+
+            // Put batches back in order, since parsers can finish them out of order
+            Map<Long, Batch> waiting = new HashMap<>();
+            long nextSequence = 0;
+            while (true) {
+                Batch batch = waiting.remove(nextSequence);
+                if (batch == null) {
+                    batch = parsed.take();
+                    if (batch.sequence != nextSequence) {
+                        waiting.put(batch.sequence, batch);
+                        continue;
+                    }
+                }
+
+                if (batch.error != null) {
+                    throw batch.error;
+                }
+                if (batch.last) {
+                    return;
+                }
+                for (int i = 0; i < batch.lines.size(); i++) {
+                    if (batch.people[i] != null) {
+                        people.accept(batch.people[i]);
+                    } else {
+                        corruptRecords.accept(batch.lines.get(i));
+                    }
+                }
+                inFlight.release();
+                nextSequence++;
+            }
+        } finally {
+            workers.shutdownNow();
+            reader.close();
+        }
+    }
+
+    /**
+     * Reader stage: groups lines into numbered batches, ending with a batch marked last
+     */
+    private void readBatches(BufferedReader reader, BlockingQueue<Batch> lines, Semaphore inFlight) {
+        try {
+            for (long sequence = 0; ; sequence++) {
+                inFlight.acquire();
+                Batch batch = new Batch(sequence);
+                try {
+                    String line;
+                    while (batch.lines.size() < batchSize && (line = reader.readLine()) != null) {
+                        batch.lines.add(line);
+                    }
+                } catch (IOException e) {
+                    batch.lines.clear();
+                    batch.error = e;
+                }
+
+                batch.last = batch.lines.isEmpty();
+                lines.put(batch);
+                if (batch.last) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // The pipeline is shutting down
+        }
+    }
+
+    /**
+     * Parser stage: turns each batch of lines into people
+     */
+    private static void parseBatches(BlockingQueue<Batch> lines, BlockingQueue<Batch> parsed) {
+        String[] fields = new String[FIELDS_LENGTH];
+        try {
+            while (true) {
+                Batch batch = lines.take();
+                batch.people = new Person[batch.lines.size()];
+                for (int i = 0; i < batch.lines.size(); i++) {
+                    batch.people[i] = parse(batch.lines.get(i), fields);
+                }
+                parsed.put(batch);
+            }
+        } catch (InterruptedException e) {
+            // The pipeline is shutting down
+        }
+    }
+
+    /**
+     * A numbered group of lines and the people parsed from them
+     */
+    private static class Batch {
+        final long sequence;
+        final List<String> lines = new ArrayList<>();
+        Person[] people;
+        boolean last;
+        IOException error;
+
+        Batch(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+}
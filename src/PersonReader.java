@@ -2,7 +2,7 @@ import javax.swing.*;
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
+import java.util.function.Consumer;
 
 import static java.nio.file.StandardOpenOption.CREATE;
 
@@ -12,8 +12,6 @@ public class PersonReader
     {
         JFileChooser chooser = new JFileChooser();
         File selectedFile;
-        String rec = "";
-        ArrayList<Person> people = new ArrayList<>();
 
         /*
         Here is the data file we are reading:
@@ -24,11 +22,6 @@ public class PersonReader
         000005, Meridoc, Brandybuck, Esq., 1126
         */
 
-        final int FIELDS_LENGTH = 5;
-
-        String id, firstName, lastName, title;
-        int yob;
-
         System.out.print("\nChoose a person file to be read");
 
         try
@@ -43,59 +36,43 @@ public class PersonReader
             {
                 selectedFile = chooser.getSelectedFile();
                 Path file = selectedFile.toPath();
-                // Typical java pattern of inherited classes
-                // we wrap a BufferedWriter around a lower level BufferedOutputStream
-                InputStream in =
-                        new BufferedInputStream(Files.newInputStream(file, CREATE));
-                BufferedReader reader =
-                        new BufferedReader(new InputStreamReader(in));
 
-                // Finally we can read the file LOL!
-                int line = 0;  // if we want to keep track of the line numbers
+                // Print the header first, then each person as soon as it is parsed.
+                // Lines are parsed on several threads but come out in file order.
+                System.out.printf("\n%-8s%-25s%-25s%-6s%6s", "ID#", "First Name", "Last Name", "Title", "YOB");
+                System.out.print("\n======================================================================");
 
-                while(reader.ready())
+                Consumer<Person> printPerson = person -> System.out.printf("\n%-8s%-25s%-25s%-6s%6d",
+                        person.getID(),
+                        person.getFirstName(),
+                        person.getLastName(),
+                        person.getTitle(),
+                        person.getYOB());
+                Consumer<String> printCorrupt = corrupt ->
                 {
-                    rec = reader.readLine();
+                    System.out.println("\nFound a record that may be corrupt: ");
+                    System.out.println(corrupt);
+                };
 
-                    // Split the line into fields and create Person object
-                    String[] fields = rec.split(",");
-
-                    if(fields.length == FIELDS_LENGTH)
-                    {
-                        id        = fields[0].trim();
-                        firstName = fields[1].trim();
-                        lastName  = fields[2].trim();
-                        title     = fields[3].trim();
-                        yob       = Integer.parseInt(fields[4].trim());
-
-                        // Create a Person object and add to ArrayList
-                        // Note: Using your constructor order: ID, firstName, lastName, title, YOB
-                        Person person = new Person(id, firstName, lastName, title, yob);
-                        people.add(person);
-                    }
-                    else
-                    {
-                        System.out.println("Found a record that may be corrupt: ");
-                        System.out.println(rec);
-                    }
-                    line++;
+                if(ParallelCsvParser.isWorthSplitting(Files.size(file)))
+                {
+                    // Big files are memory-mapped and split into ranges parsed side by side
+                    new ParallelCsvParser<>(PersonPipeline::parse, PersonPipeline.FIELDS_LENGTH)
+                            .parse(file, true, printPerson, printCorrupt);
                 }
-                reader.close(); // must close the file to seal it and flush buffer
-                System.out.println("\n\nData file read!");
-
-                // Now display the people from the ArrayList using Person objects
-                System.out.printf("\n%-8s%-25s%-25s%-6s%6s", "ID#", "First Name", "Last Name", "Title", "YOB");
-                System.out.print("\n======================================================================");
-
-                for(Person person : people)
+                else
                 {
-                    System.out.printf("\n%-8s%-25s%-25s%-6s%6d",
-                            person.getID(),
-                            person.getFirstName(),
-                            person.getLastName(),
-                            person.getTitle(),
-                            person.getYOB());
+                    // Typical java pattern of inherited classes
+                    // we wrap a BufferedWriter around a lower level BufferedOutputStream
+                    InputStream in =
+                            new BufferedInputStream(Files.newInputStream(file, CREATE));
+                    // Decoded like the big files above, whatever the platform's default charset
+                    BufferedReader reader =
+                            new BufferedReader(new InputStreamReader(in, ParallelCsvParser.CHARSET));
+
+                    new PersonPipeline().run(reader, printPerson, printCorrupt);
                 }
+                System.out.println("\n\nData file read!");
             }
             else  // user closed the file dialog without choosing
             {
@@ -113,5 +90,10 @@ public class PersonReader
         {
             e.printStackTrace();
         }
+        catch (InterruptedException e)
+        {
+            System.out.println("Reading was interrupted");
+            Thread.currentThread().interrupt();
+        }
     }
 }
\ No newline at end of file
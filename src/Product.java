@@ -1,6 +1,7 @@
 import java.util.Objects;
 import java.io.RandomAccessFile;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Product class represents a product with basic information including name, description, ID, and cost.
@@ -133,17 +134,10 @@ public class Product {
      * @throws IOException If an I/O error occurs
      */
     public void writeToRandomFile(RandomAccessFile raf) throws IOException {
-        // Write name (35 chars × 2 bytes = 70 bytes)
-        raf.writeChars(getFixedName());
-
-        // Write description (75 chars × 2 bytes = 150 bytes)
-        raf.writeChars(getFixedDescription());
-
-        // Write ID (6 chars × 2 bytes = 12 bytes)
-        raf.writeChars(getFixedID());
-
-        // Write cost (8 bytes)
-        raf.writeDouble(cost);
+        // Encode the whole record first so it goes out in a single write
+        ByteBuffer buf = ByteBuffer.allocate(RECORD_SIZE);
+        writeToBuffer(buf, 0);
+        raf.write(buf.array());
     }
 
     /**
@@ -158,33 +152,68 @@ public class Product {
             return null;
         }
 
-        // Read name (35 characters)
-        StringBuilder nameBuilder = new StringBuilder();
-        for (int i = 0; i < NAME_SIZE; i++) {
-            nameBuilder.append(raf.readChar());
-        }
-        String name = nameBuilder.toString().trim();
-
-        // Read description (75 characters)
-        StringBuilder descBuilder = new StringBuilder();
-        for (int i = 0; i < DESCRIPTION_SIZE; i++) {
-            descBuilder.append(raf.readChar());
-        }
-        String description = descBuilder.toString().trim();
+        // Read the whole record in one call instead of one char at a time
+        byte[] record = new byte[RECORD_SIZE];
+        raf.readFully(record);
+        return readFromBuffer(ByteBuffer.wrap(record), 0);
+    }
 
-        // Read ID (6 characters)
-        StringBuilder idBuilder = new StringBuilder();
-        for (int i = 0; i < ID_SIZE; i++) {
-            idBuilder.append(raf.readChar());
-        }
-        String id = idBuilder.toString().trim();
+    /**
+     * Writes this Product into a buffer using the same layout as writeToRandomFile.
+     * Uses absolute puts, so the buffer's position is left unchanged.
+     * @param buf The buffer to write to (must use big-endian byte order)
+     * @param offset Byte offset of the record within the buffer
+     */
+    public void writeToBuffer(ByteBuffer buf, int offset) {
+        // Name (70 bytes), description (150 bytes), ID (12 bytes), then cost (8 bytes)
+        offset = putFixedChars(buf, offset, name, NAME_SIZE);
+        offset = putFixedChars(buf, offset, description, DESCRIPTION_SIZE);
+        offset = putFixedChars(buf, offset, ID, ID_SIZE);
+        buf.putDouble(offset, cost);
+    }
 
-        // Read cost
-        double cost = raf.readDouble();
+    /**
+     * Reads a Product from a buffer holding a record in the writeToRandomFile layout.
+     * Uses absolute gets, so the buffer's position is left unchanged.
+     * @param buf The buffer to read from (must use big-endian byte order)
+     * @param offset Byte offset of the record within the buffer
+     * @return A Product object
+     */
+    public static Product readFromBuffer(ByteBuffer buf, int offset) {
+        String name = getFixedChars(buf, offset, NAME_SIZE);
+        offset += NAME_SIZE * 2;
+        String description = getFixedChars(buf, offset, DESCRIPTION_SIZE);
+        offset += DESCRIPTION_SIZE * 2;
+        String id = getFixedChars(buf, offset, ID_SIZE);
+        offset += ID_SIZE * 2;
+        double cost = buf.getDouble(offset);
 
         return new Product(name, description, id, cost);
     }
 
+    /**
+     * Writes a string as exactly size UTF-16 chars, truncating or padding with spaces like padString
+     * @return The offset just past the field
+     */
+    private static int putFixedChars(ByteBuffer buf, int offset, String str, int size) {
+        int length = str == null ? 0 : Math.min(str.length(), size);
+        for (int i = 0; i < size; i++) {
+            buf.putChar(offset + i * 2, i < length ? str.charAt(i) : ' ');
+        }
+        return offset + size * 2;
+    }
+
+    /**
+     * Reads size UTF-16 chars and trims the padding
+     */
+    private static String getFixedChars(ByteBuffer buf, int offset, int size) {
+        char[] chars = new char[size];
+        for (int i = 0; i < size; i++) {
+            chars[i] = buf.getChar(offset + i * 2);
+        }
+        return new String(chars).trim();
+    }
+
     /**
      * Seeks to a specific record number in the RandomAccessFile
      * @param raf The RandomAccessFile
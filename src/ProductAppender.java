@@ -0,0 +1,182 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind appender for a ProductStore.
+ * Appended products are held in memory and written as a group once maxBatchRecords are waiting
+ * or maxDelayMillis have passed, whichever comes first. Each group is encoded into one buffer
+ * and written with one FileChannel write, instead of one write per record.
+ *
+ * Groups go through a shared ConcurrentProductAppender, so their record slots are reserved
+ * atomically and other threads or processes can append to the same file at the same time.
+ * Any number of threads may append through one ProductAppender. After each group is written
+ * the store is refreshed and its open indexes take in the group, so indexes the caller opened
+ * stay current without rescanning the file.
+ *
+ * The Durability mode decides when the data file is forced to disk: never (left to the
+ * operating system), after every group, or after every record.
+ */
+public class ProductAppender implements Closeable {
+    public enum Durability {
+        /** Never force; the operating system writes the data back when it chooses */
+        NONE,
+        /** Force once after each group is written */
+        BATCH,
+        /** Write and force each record before append returns */
+        RECORD
+    }
+
+    public static final int DEFAULT_BATCH_RECORDS = 4096;
+    public static final long DEFAULT_DELAY_MILLIS = 200;
+
+    private final ProductStore store;
+    private final Durability durability;
+    private final int maxBatchRecords;
+    private final ConcurrentProductAppender slots;
+    private final ScheduledExecutorService flusher;
+    private final List<Product> pending = new ArrayList<>();
+    private final Map<String, Product> pendingIds = new HashMap<>();
+    private IOException flushError;
+    private boolean closed;
+
+    /**
+     * Creates an appender with the default group size and delay
+     * @param store The store to append to (opened read/write)
+     * @param durability When to force written records to disk
+     * @throws IOException If the data or lock file cannot be opened
+     */
+    public ProductAppender(ProductStore store, Durability durability) throws IOException {
+        this(store, durability, DEFAULT_BATCH_RECORDS, DEFAULT_DELAY_MILLIS);
+    }
+
+    /**
+     * Creates an appender
+     * @param store The store to append to (opened read/write)
+     * @param durability When to force written records to disk
+     * @param maxBatchRecords Number of waiting records that triggers a write
+     * @param maxDelayMillis Longest time a record waits before it is written
+     * @throws IOException If the data or lock file cannot be opened
+     */
+    public ProductAppender(ProductStore store, Durability durability, int maxBatchRecords, long maxDelayMillis)
+            throws IOException {
+        this.store = store;
+        this.slots = new ConcurrentProductAppender(store, true);
+        this.durability = durability;
+        this.maxBatchRecords = durability == Durability.RECORD ? 1 : maxBatchRecords;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "product-appender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::timedFlush, maxDelayMillis, maxDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Queues a Product to be appended, writing the waiting group if it is now full.
+     * Its record number is only known once the group is written, since other writers may
+     * take the slots in between.
+     * @param product The product to append
+     * @throws IOException If this or an earlier group could not be written
+     */
+    public synchronized void append(Product product) throws IOException {
+        checkOpen();
+        pending.add(product);
+        pendingIds.putIfAbsent(product.getID().trim(), product);
+        if (pending.size() >= maxBatchRecords) {
+            flush();
+        }
+    }
+
+    /**
+     * Returns the number of records in the file (as of the last write) plus those still waiting
+     * @return The record count including pending records
+     */
+    public synchronized int getRecordCount() {
+        return store.getRecordCount() + pending.size();
+    }
+
+    /**
+     * Finds the Product with the given ID, including products not yet written
+     * @param id The product ID
+     * @return The first Product with that ID, or null if there is none
+     * @throws IOException If an I/O error occurs
+     */
+    public synchronized Product findById(String id) throws IOException {
+        store.refresh();
+        Product product = store.findById(id);
+        return product != null ? product : pendingIds.get(id.trim());
+    }
+
+    /**
+     * Writes every waiting record now, forcing it to disk unless durability is NONE
+     * @throws IOException If the records could not be written
+     */
+    public synchronized void flush() throws IOException {
+        if (flushError != null) {
+            IOException e = flushError;
+            flushError = null;
+            throw e;
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        slots.appendAll(pending);
+        if (durability != Durability.NONE) {
+            slots.force();
+        }
+        pending.clear();
+        pendingIds.clear();
+        store.refresh();
+        store.updateIndexes();
+    }
+
+    /**
+     * Flusher task: writes whatever is waiting, keeping any error for the next caller
+     */
+    private synchronized void timedFlush() {
+        if (flushError != null || pending.isEmpty()) {
+            return;
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            flushError = e;
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Product appender is closed");
+        }
+    }
+
+    /**
+     * Writes any waiting records and stops the flusher. The store is left open.
+     * @throws IOException If the waiting records could not be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        flusher.shutdownNow();
+        try {
+            flush();
+        } finally {
+            slots.close();
+        }
+    }
+}
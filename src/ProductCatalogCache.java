@@ -0,0 +1,334 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-memory, off-heap copy of a product catalog stored column by column.
+ * Names, descriptions, IDs and costs each live in their own direct buffer, so a search by
+ * name only touches the name column and the catalog does not take up heap space.
+ *
+ * The columns are split into fixed-size segments. refresh() loads only the records appended
+ * since the last call by adding to the last segment or starting new ones, unless records were
+ * changed or deleted in place, in which case the whole cache is reloaded. Deleted records are
+ * left empty.
+ *
+ * One thread may read records (get and the field getters) while another runs refresh; readers
+ * see the records loaded as of the last completed refresh.
+ */
+public class ProductCatalogCache {
+    public static final int SEGMENT_RECORDS = 1 << 16; // 65,536 records per segment
+
+    private final ProductStore store;
+    // Replaced rather than cleared on reload, so readers holding the old list stay in bounds
+    private volatile List<Segment> segments = new CopyOnWriteArrayList<>();
+    private volatile int size;
+    private long modificationCount;
+
+    /**
+     * Creates a cache of a store and loads every record in it
+     * @param store The product store to cache
+     * @throws IOException If the store cannot be read
+     */
+    public ProductCatalogCache(ProductStore store) throws IOException {
+        this(store, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a cache of a store and loads its first records, leaving the rest for refresh(int)
+     * @param store The product store to cache
+     * @param limit The number of records to load now
+     * @throws IOException If the store cannot be read
+     */
+    public ProductCatalogCache(ProductStore store, int limit) throws IOException {
+        this.store = store;
+        refresh(limit);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the store's modified count as of the last full reload.
+     * Record numbers and values taken from the cache stay valid while this is unchanged.
+     * @return The modified count the cached records were loaded at
+     */
+    public long getModificationCount() {
+        return modificationCount;
+    }
+
+    /**
+     * Loads any records appended to the store since the last refresh
+     * @return The number of records in the cache
+     * @throws IOException If the store cannot be read
+     */
+    public int refresh() throws IOException {
+        return refresh(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Loads records appended to the store since the last refresh, up to a limit, so a large
+     * store can be loaded a block at a time
+     * @param limit The highest record count to load up to
+     * @return The number of records in the cache
+     * @throws IOException If the store cannot be read
+     */
+    public int refresh(int limit) throws IOException {
+        int storeCount = store.refresh();
+        if (storeCount < size || store.getModificationCount() != modificationCount) {
+            // The file was replaced with a smaller one or changed in place, so start over
+            size = 0;
+            segments = new CopyOnWriteArrayList<>();
+            modificationCount = store.getModificationCount();
+        }
+        int recordCount = Math.max(size, Math.min(storeCount, limit));
+
+        while (segments.size() * SEGMENT_RECORDS < recordCount) {
+            segments.add(new Segment());
+        }
+        store.visit(size, recordCount, (view, recordNumber) ->
+                segments.get(recordNumber / SEGMENT_RECORDS).set(recordNumber % SEGMENT_RECORDS, view));
+        size = recordCount;
+        return size;
+    }
+
+    /**
+     * Rebuilds a Product from the cached columns
+     * @param recordNumber The record number (0-based)
+     * @return The Product, or null if the record is not in the cache or was deleted
+     */
+    public Product get(int recordNumber) {
+        Segment segment = segmentFor(recordNumber);
+        int index = recordNumber % SEGMENT_RECORDS;
+        if (segment == null || segment.ids.length(index) == 0) {
+            return null;
+        }
+        return new Product(segment.names.text(index), segment.descriptions.text(index),
+                segment.ids.text(index), segment.costs.get(index));
+    }
+
+    /**
+     * Reads one cached name, without rebuilding the rest of the Product
+     * @param recordNumber The record number (0-based)
+     * @return The name, or null if the record is not in the cache or was deleted
+     */
+    public String getName(int recordNumber) {
+        Segment segment = segmentFor(recordNumber);
+        return segment == null ? null : segment.text(segment.names, recordNumber % SEGMENT_RECORDS);
+    }
+
+    /**
+     * Reads one cached description (see getName)
+     * @param recordNumber The record number (0-based)
+     * @return The description, or null if the record is not in the cache or was deleted
+     */
+    public String getDescription(int recordNumber) {
+        Segment segment = segmentFor(recordNumber);
+        return segment == null ? null : segment.text(segment.descriptions, recordNumber % SEGMENT_RECORDS);
+    }
+
+    /**
+     * Reads one cached ID (see getName)
+     * @param recordNumber The record number (0-based)
+     * @return The ID, or null if the record is not in the cache or was deleted
+     */
+    public String getID(int recordNumber) {
+        Segment segment = segmentFor(recordNumber);
+        return segment == null ? null : segment.text(segment.ids, recordNumber % SEGMENT_RECORDS);
+    }
+
+    /**
+     * Reads one cached cost (see getName)
+     * @param recordNumber The record number (0-based)
+     * @return The cost, or NaN if the record is not in the cache or was deleted
+     */
+    public double getCost(int recordNumber) {
+        Segment segment = segmentFor(recordNumber);
+        int index = recordNumber % SEGMENT_RECORDS;
+        return segment == null || segment.ids.length(index) == 0 ? Double.NaN : segment.costs.get(index);
+    }
+
+    /**
+     * Returns the segment holding a record, or null if the record is not loaded
+     */
+    private Segment segmentFor(int recordNumber) {
+        List<Segment> current = segments;
+        int index = recordNumber / SEGMENT_RECORDS;
+        if (recordNumber < 0 || recordNumber >= size || index >= current.size()) {
+            return null;
+        }
+        return current.get(index);
+    }
+
+    /**
+     * Finds the records whose name contains the search term (case-insensitive).
+     * Uses the store's name index to narrow the records checked when the term is long enough;
+     * otherwise scans the whole name column.
+     * @param term The search term
+     * @return The matching record numbers, in order
+     * @throws IOException If the name index cannot be read
+     */
+    public RecordList findByName(String term) throws IOException {
+        return findByName(term, 0, size);
+    }
+
+    /**
+     * Finds the records in a range whose name contains the search term (case-insensitive),
+     * so a long search can be split into blocks (see findByName(String))
+     * @param term The search term
+     * @param from First record number to check (inclusive)
+     * @param to Last record number to check (exclusive)
+     * @return The matching record numbers, in order
+     * @throws IOException If the name index cannot be read
+     */
+    public RecordList findByName(String term, int from, int to) throws IOException {
+        return findByName(term, from, to, nameCandidates(term));
+    }
+
+    /**
+     * Looks up the records whose name may contain the search term in the name index, once for
+     * a search that is then split into blocks (see findByName(String, int, int, RecordList))
+     * @param term The search term
+     * @return The candidate record numbers, in order, or null if every record has to be checked:
+     *         the term is too short for the index, or the store has changed since the cache was loaded
+     * @throws IOException If the name index cannot be read
+     */
+    public RecordList nameCandidates(String term) throws IOException {
+        String lowerTerm = term.toLowerCase();
+        // Terms too short for the index don't need it loaded
+        if (lowerTerm.length() < ProductNameIndex.GRAM_SIZE) {
+            return null;
+        }
+        ProductNameIndex index = store.getNameIndex();
+        index.update();
+        // The store may have moved on to a changed or compacted file since the cache was loaded
+        return store.getModificationCount() == modificationCount ? index.candidates(lowerTerm) : null;
+    }
+
+    /**
+     * Finds the records in a range whose name contains the search term (case-insensitive),
+     * checking only the candidates taken from the name index
+     * @param term The search term
+     * @param from First record number to check (inclusive)
+     * @param to Last record number to check (exclusive)
+     * @param candidates The term's nameCandidates, or null to check every record in the range
+     * @return The matching record numbers, in order
+     */
+    public RecordList findByName(String term, int from, int to, RecordList candidates) {
+        String lowerTerm = term.toLowerCase();
+        from = Math.max(from, 0);
+        to = Math.min(to, size);
+        RecordList matches = new RecordList();
+
+        if (candidates != null) {
+            // Binary search for the first candidate in the range
+            int low = 0;
+            int high = candidates.size();
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (candidates.get(middle) < from) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            for (int i = low; i < candidates.size() && candidates.get(i) < to; i++) {
+                int recordNumber = candidates.get(i);
+                if (segments.get(recordNumber / SEGMENT_RECORDS).names
+                        .contains(recordNumber % SEGMENT_RECORDS, lowerTerm)) {
+                    matches.add(recordNumber);
+                }
+            }
+            return matches;
+        }
+
+        for (int recordNumber = from; recordNumber < to; recordNumber++) {
+            Segment segment = segments.get(recordNumber / SEGMENT_RECORDS);
+            int i = recordNumber % SEGMENT_RECORDS;
+            // Deleted records have no ID in the cache
+            if (segment.ids.length(i) > 0 && segment.names.contains(i, lowerTerm)) {
+                matches.add(recordNumber);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * One segment's worth of each column
+     */
+    private static class Segment {
+        final TextColumn names = new TextColumn(Product.NAME_SIZE);
+        final TextColumn descriptions = new TextColumn(Product.DESCRIPTION_SIZE);
+        final TextColumn ids = new TextColumn(Product.ID_SIZE);
+        final DoubleBuffer costs = ByteBuffer.allocateDirect(SEGMENT_RECORDS * 8).asDoubleBuffer();
+
+        void set(int index, ProductView view) {
+            names.set(index, view.getName());
+            descriptions.set(index, view.getDescription());
+            ids.set(index, view.getID());
+            costs.put(index, view.getCost());
+        }
+
+        /**
+         * One value of a column, or null if the record was deleted
+         */
+        String text(TextColumn column, int index) {
+            return ids.length(index) == 0 ? null : column.text(index);
+        }
+    }
+
+    /**
+     * A column of text values, each stored in a fixed number of chars plus a length
+     */
+    private static class TextColumn {
+        private final int width;
+        private final CharBuffer chars;
+        private final ByteBuffer lengths;
+
+        TextColumn(int width) {
+            this.width = width;
+            this.chars = ByteBuffer.allocateDirect(SEGMENT_RECORDS * width * 2).asCharBuffer();
+            this.lengths = ByteBuffer.allocateDirect(SEGMENT_RECORDS);
+        }
+
+        void set(int index, CharSequence value) {
+            int length = Math.min(value.length(), width);
+            for (int i = 0; i < length; i++) {
+                chars.put(index * width + i, value.charAt(i));
+            }
+            lengths.put(index, (byte) length);
+        }
+
+        int length(int index) {
+            return lengths.get(index);
+        }
+
+        String text(int index) {
+            char[] value = new char[lengths.get(index)];
+            chars.get(index * width, value);
+            return new String(value);
+        }
+
+        /**
+         * Case-insensitive substring test against one value, without allocating
+         */
+        boolean contains(int index, String lowerTerm) {
+            int base = index * width;
+            int last = lengths.get(index) - lowerTerm.length();
+            for (int start = 0; start <= last; start++) {
+                int i = 0;
+                while (i < lowerTerm.length()
+                        && Character.toLowerCase(chars.get(base + start + i)) == lowerTerm.charAt(i)) {
+                    i++;
+                }
+                if (i == lowerTerm.length()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
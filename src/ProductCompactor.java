@@ -0,0 +1,209 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes deleted records (tombstones) from a product data file while it stays in use.
+ *
+ * Runs of live records are copied into a new file with FileChannel.transferTo, and any name
+ * or ID index the file had is rebuilt for the new record numbers. This is done without any
+ * lock, so readers and writers carry on as normal. The new file then replaces the old one
+ * under the lock file (see ProductLockFile.replaceDataFile): records appended during the copy
+ * are carried over, the files are renamed into place, and the generation is bumped so every
+ * open ProductStore reopens the new file on its next refresh. If a record was changed in
+ * place during the copy, the copy is thrown away and taken again.
+ *
+ * The renames are atomic, so a reader always opens a whole file, old or new. Stores open their
+ * indexes under a shared lock on the lock file (see ProductLockFile.readGeneration), so an index
+ * is never loaded between the renames and the generation bump.
+ *
+ * Usage: java ProductCompactor [dataFile]
+ */
+public class ProductCompactor {
+    public static final String TEMP_SUFFIX = ".compacting";
+
+    // Number of records checked for tombstones per batch
+    private static final int BATCH_RECORDS = ProductStore.SCAN_BATCH_RECORDS;
+
+    // Copies thrown away because records changed in place before giving up
+    private static final int MAX_ATTEMPTS = 5;
+
+    // How long to wait for writers with uncommitted records before taking a fresh copy
+    private static final long COMMIT_WAIT_MILLIS = 5000;
+    private static final long RETRY_DELAY_MILLIS = 10;
+
+    /**
+     * Compacts a data file in place
+     * @param dataFile The product data file
+     * @return The number of records in the compacted file
+     * @throws IOException If the files cannot be read or written, or records kept changing
+     *                     in place for every attempt
+     */
+    public static int compact(File dataFile) throws IOException {
+        File tempFile = new File(dataFile.getPath() + TEMP_SUFFIX);
+        boolean names = ProductNameIndex.indexFileFor(dataFile).exists();
+        boolean ids = ProductIdIndex.indexFileFor(dataFile).exists();
+
+        try (ProductStore source = new ProductStore(dataFile, "r");
+             ProductLockFile lockFile = new ProductLockFile(source, true)) {
+            for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+                source.refresh();
+                long generation = source.getGeneration();
+                long modified = source.getModificationCount();
+                int copied = source.getRecordCount();
+
+                deleteTempFiles(tempFile);
+                int[] count = {copyLiveRecords(source, copied, tempFile, names, ids)};
+
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(COMMIT_WAIT_MILLIS);
+                do {
+                    boolean replaced = lockFile.replaceDataFile(generation, modified, committed -> {
+                        // Carry over records appended since the copy was taken
+                        source.refresh();
+                        try (FileChannel out = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE)) {
+                            out.position(out.size());
+                            count[0] += transferLiveRecords(source, copied, source.getRecordCount(), out);
+                            writeRecordCount(out, source.getFormat(), count[0]);
+                            out.force(true);
+                        }
+                        // The swap counts as a change in place, which the new name index already reflects
+                        File nameIndexFile = ProductNameIndex.indexFileFor(tempFile);
+                        if (nameIndexFile.exists()) {
+                            ProductNameIndex.stamp(nameIndexFile, modified + 1);
+                        }
+                        moveIfExists(nameIndexFile, ProductNameIndex.indexFileFor(dataFile));
+                        moveIfExists(ProductIdIndex.indexFileFor(tempFile), ProductIdIndex.indexFileFor(dataFile));
+                        moveIfExists(tempFile, dataFile);
+                        return count[0];
+                    });
+                    if (replaced) {
+                        return count[0];
+                    }
+                    sleep();
+                    // Only wait for writers to commit; a change in place means copying again
+                } while (lockFile.getGeneration() == generation && lockFile.getModificationCount() == modified
+                        && System.nanoTime() < deadline);
+            }
+        } finally {
+            deleteTempFiles(tempFile);
+        }
+        throw new IOException("Records kept changing during compaction of " + dataFile);
+    }
+
+    /**
+     * Copies the live records among the first recordCount into a new file, and builds whichever
+     * indexes the original file had
+     * @return The number of records copied
+     */
+    private static int copyLiveRecords(ProductStore source, int recordCount, File target, boolean names, boolean ids)
+            throws IOException {
+        ProductFormat format = source.getFormat();
+        int count;
+        try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE_NEW)) {
+            ByteBuffer header = format.header(0);
+            while (header.hasRemaining()) {
+                out.write(header);
+            }
+            count = transferLiveRecords(source, 0, recordCount, out);
+            writeRecordCount(out, format, count);
+        }
+
+        if (names || ids) {
+            try (ProductStore compacted = new ProductStore(target, "rw", format)) {
+                if (names) {
+                    compacted.getNameIndex();
+                }
+                if (ids) {
+                    compacted.getIdIndex();
+                }
+            }
+        }
+        // The data file's own lock file takes over once the copy is moved into place
+        Files.deleteIfExists(ProductLockFile.lockFileFor(target).toPath());
+        return count;
+    }
+
+    /**
+     * Appends the live records in a range to a channel, one transfer per run of live records
+     * @return The number of records copied
+     */
+    private static int transferLiveRecords(ProductStore source, int from, int to, FileChannel out)
+            throws IOException {
+        int count = 0;
+        for (int batchStart = from; batchStart < to; batchStart += BATCH_RECORDS) {
+            RecordList live = new RecordList(BATCH_RECORDS);
+            source.visit(batchStart, Math.min(to, batchStart + BATCH_RECORDS),
+                    (view, recordNumber) -> live.add(recordNumber));
+
+            int i = 0;
+            while (i < live.size()) {
+                int runStart = live.get(i);
+                int runLength = 1;
+                while (i + runLength < live.size() && live.get(i + runLength) == runStart + runLength) {
+                    runLength++;
+                }
+                source.transferRecords(runStart, runLength, out);
+                i += runLength;
+                count += runLength;
+            }
+        }
+        return count;
+    }
+
+    private static void writeRecordCount(FileChannel out, ProductFormat format, long count) throws IOException {
+        if (format.headerSize() > 0) {
+            ByteBuffer value = ByteBuffer.allocate(8).putLong(0, count);
+            while (value.hasRemaining()) {
+                out.write(value, ProductFormat.V2_COUNT_OFFSET + value.position());
+            }
+        }
+    }
+
+    private static void moveIfExists(File from, File to) throws IOException {
+        if (from.exists()) {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private static void deleteTempFiles(File tempFile) throws IOException {
+        Files.deleteIfExists(tempFile.toPath());
+        Files.deleteIfExists(ProductLockFile.lockFileFor(tempFile).toPath());
+        Files.deleteIfExists(ProductNameIndex.indexFileFor(tempFile).toPath());
+        Files.deleteIfExists(ProductIdIndex.indexFileFor(tempFile).toPath());
+    }
+
+    private static void sleep() throws IOException {
+        try {
+            Thread.sleep(RETRY_DELAY_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted during compaction", e);
+        }
+    }
+
+    public static void main(String[] args) {
+        File dataFile = new File(args.length > 0 ? args[0] : "ProductData.dat");
+        if (!dataFile.exists()) {
+            System.out.println("Product data file not found: " + dataFile);
+            System.exit(1);
+        }
+
+        long start = System.nanoTime();
+        try {
+            long before = dataFile.length();
+            int count = compact(dataFile);
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("Compacted " + dataFile + " to " + count + " record(s) in " + millis + " ms ("
+                    + (before - dataFile.length()) + " bytes freed)");
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,303 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Sorted index of product costs for range queries.
+ *
+ * The index is kept beside the data file (ProductData.dat.costs) as an array of
+ * (cost, record number) entries sorted by cost, and is memory-mapped when opened. A range
+ * query is a binary search for the low end followed by a scan up to the high end, so it only
+ * touches the entries in the range.
+ *
+ * File layout: a 16-byte header (records indexed, entry count, the store's modified count when
+ * the file was written), then 12-byte entries: the cost as a double and the record number.
+ *
+ * Records appended since the file was written, and costs changed through the store, are kept
+ * in a sorted map in memory and merged into the file once there are MERGE_ENTRIES of them, or
+ * when the index is closed. Like the name index, an entry is only a hint: a record whose cost
+ * changed keeps its old entry too, so callers must check each candidate's cost. If records were
+ * changed in place by another process since the file was written, it is rebuilt from scratch.
+ */
+public class ProductCostIndex implements Closeable {
+    public static final String FILE_SUFFIX = ".costs";
+
+    // Entries held in memory before they are merged into the file
+    public static final int MERGE_ENTRIES = 1 << 16;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int ENTRY_SIZE = 8 + 4;
+
+    private final ProductStore store;
+    private final File indexFile;
+    private final boolean writable;
+    private ByteBuffer entries;
+    private int entryCount;
+    private int indexedCount;
+    private TreeMap<Double, RecordList> added = new TreeMap<>();
+    private int addedCount;
+
+    /**
+     * Opens the cost index for a store, loading the index file and indexing any records added since
+     * @param store The product store the index belongs to
+     * @param writable true to save the index file, false to keep everything in memory only
+     * @throws IOException If the index file cannot be read or written
+     */
+    public ProductCostIndex(ProductStore store, boolean writable) throws IOException {
+        this.store = store;
+        this.indexFile = indexFileFor(store.getFile());
+        this.writable = writable;
+
+        if (!load()) {
+            rebuild();
+        }
+        update();
+    }
+
+    /**
+     * Returns the index file used for a data file
+     * @param dataFile The product data file
+     * @return The sidecar index file
+     */
+    public static File indexFileFor(File dataFile) {
+        return new File(dataFile.getPath() + FILE_SUFFIX);
+    }
+
+    public int getIndexedCount() {
+        return indexedCount;
+    }
+
+    /**
+     * Indexes any records in the store that are not in the index yet
+     * @throws IOException If the store cannot be read or the index file cannot be written
+     */
+    public void update() throws IOException {
+        if (indexedCount < store.getRecordCount()) {
+            store.visit(indexedCount, store.getRecordCount(), (view, recordNumber) -> add(recordNumber, view.getCost()));
+            indexedCount = store.getRecordCount();
+            if (addedCount >= MERGE_ENTRIES) {
+                merge();
+            }
+        }
+    }
+
+    /**
+     * Adds an entry for a record written or changed through the store
+     * @param recordNumber The record number of the product
+     * @param cost The product's cost
+     */
+    public void add(int recordNumber, double cost) {
+        added.computeIfAbsent(cost, k -> new RecordList()).add(recordNumber);
+        addedCount++;
+        indexedCount = Math.max(indexedCount, recordNumber + 1);
+    }
+
+    /**
+     * Returns the records whose cost may be within a range.
+     * Every record with a cost in the range is included, but callers must still check each
+     * candidate, since records whose cost changed or that were deleted keep their old entries.
+     * @param min Lowest cost (inclusive)
+     * @param max Highest cost (inclusive)
+     * @return The candidate record numbers, in record order
+     */
+    public RecordList candidates(double min, double max) {
+        int[] found = new int[16];
+        int count = 0;
+        for (int entry = lowerBound(min); entry < entryCount && costAt(entry) <= max; entry++) {
+            if (count == found.length) {
+                found = Arrays.copyOf(found, count * 2);
+            }
+            found[count++] = entries.getInt(HEADER_SIZE + entry * ENTRY_SIZE + 8);
+        }
+        if (min <= max) {
+            for (RecordList records : added.subMap(min, true, max, true).values()) {
+                for (int i = 0; i < records.size(); i++) {
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, count * 2);
+                    }
+                    found[count++] = records.get(i);
+                }
+            }
+        }
+
+        // Sorted first, so every add goes on the end of the list
+        Arrays.sort(found, 0, count);
+        RecordList records = new RecordList(count);
+        for (int i = 0; i < count; i++) {
+            records.add(found[i]);
+        }
+        return records;
+    }
+
+    /**
+     * Finds the first entry whose cost is not below min
+     */
+    private int lowerBound(double min) {
+        int low = 0;
+        int high = entryCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (Double.compare(costAt(middle), min) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private double costAt(int entry) {
+        return entries.getDouble(HEADER_SIZE + entry * ENTRY_SIZE);
+    }
+
+    /**
+     * Sorts every record in the store into a new index
+     */
+    private void rebuild() throws IOException {
+        int recordCount = store.getRecordCount();
+        double[] costs = new double[recordCount];
+        boolean[] live = new boolean[recordCount];
+        store.visit(0, recordCount, (view, recordNumber) -> {
+            costs[recordNumber] = view.getCost();
+            live[recordNumber] = true;
+        });
+
+        // Deleted records are left out
+        double[] sortedCosts = new double[recordCount];
+        int count = 0;
+        for (int i = 0; i < recordCount; i++) {
+            if (live[i]) {
+                sortedCosts[count++] = costs[i];
+            }
+        }
+        sortedCosts = Arrays.copyOf(sortedCosts, count);
+        Arrays.parallelSort(sortedCosts);
+
+        // Each record is keyed by where its cost falls in that order, then by its record
+        // number, so the entries sort as plain longs
+        long[] keys = new long[count];
+        count = 0;
+        for (int i = 0; i < recordCount; i++) {
+            if (live[i]) {
+                keys[count++] = (long) Arrays.binarySearch(sortedCosts, costs[i]) << 32 | i;
+            }
+        }
+        Arrays.parallelSort(keys);
+
+        ByteBuffer sorted = ByteBuffer.allocateDirect(HEADER_SIZE + count * ENTRY_SIZE);
+        for (int i = 0; i < count; i++) {
+            int recordNumber = (int) keys[i];
+            sorted.putDouble(HEADER_SIZE + i * ENTRY_SIZE, costs[recordNumber])
+                    .putInt(HEADER_SIZE + i * ENTRY_SIZE + 8, recordNumber);
+        }
+        replace(sorted, count, recordCount);
+    }
+
+    /**
+     * Merges the added entries into the sorted entries
+     */
+    private void merge() throws IOException {
+        ByteBuffer merged = ByteBuffer.allocateDirect(HEADER_SIZE + (entryCount + addedCount) * ENTRY_SIZE);
+        int entry = 0;
+        int written = 0;
+        for (Map.Entry<Double, RecordList> costs : added.entrySet()) {
+            while (entry < entryCount && Double.compare(costAt(entry), costs.getKey()) <= 0) {
+                copyEntry(entry++, merged, written++);
+            }
+            for (int i = 0; i < costs.getValue().size(); i++) {
+                merged.putDouble(HEADER_SIZE + written * ENTRY_SIZE, costs.getKey())
+                        .putInt(HEADER_SIZE + written * ENTRY_SIZE + 8, costs.getValue().get(i));
+                written++;
+            }
+        }
+        while (entry < entryCount) {
+            copyEntry(entry++, merged, written++);
+        }
+        replace(merged, written, indexedCount);
+    }
+
+    private void copyEntry(int entry, ByteBuffer target, int targetEntry) {
+        target.put(HEADER_SIZE + targetEntry * ENTRY_SIZE, entries, HEADER_SIZE + entry * ENTRY_SIZE, ENTRY_SIZE);
+    }
+
+    /**
+     * Switches to a new set of sorted entries, saving them to the index file if writable
+     */
+    private void replace(ByteBuffer sorted, int count, int records) throws IOException {
+        sorted.putInt(0, records).putInt(4, count).putLong(8, store.getModificationCount());
+        added = new TreeMap<>();
+        addedCount = 0;
+        indexedCount = records;
+        entryCount = count;
+        entries = sorted;
+
+        if (writable) {
+            ProductStore.replaceSidecar(indexFile, store.getFile(), sorted.duplicate().clear());
+        }
+    }
+
+    /**
+     * Maps the index file, if there is one and it matches the store
+     * @return false if the index has to be rebuilt
+     */
+    private boolean load() throws IOException {
+        if (!indexFile.exists() || indexFile.length() < HEADER_SIZE) {
+            return false;
+        }
+
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int count = mapped.getInt(4);
+            if (channel.size() < HEADER_SIZE + (long) count * ENTRY_SIZE
+                    || mapped.getLong(8) != store.getModificationCount() || mapped.getInt(0) > store.getRecordCount()) {
+                return false;
+            }
+            entries = mapped;
+            entryCount = count;
+            indexedCount = mapped.getInt(0);
+            return true;
+        }
+    }
+
+    /**
+     * Saves entries added since the index file was written
+     * @throws IOException If the index file cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (writable && addedCount > 0) {
+            merge();
+        }
+    }
+
+    /**
+     * Rebuilds the cost index for an existing data file.
+     * Usage: java ProductCostIndex [dataFile] (defaults to ProductData.dat)
+     */
+    public static void main(String[] args) {
+        File dataFile = new File(args.length > 0 ? args[0] : "ProductData.dat");
+        if (!dataFile.exists()) {
+            System.out.println("Product data file not found: " + dataFile);
+            System.exit(1);
+        }
+
+        File indexFile = indexFileFor(dataFile);
+        if (indexFile.exists() && !indexFile.delete()) {
+            System.out.println("Could not delete old index: " + indexFile);
+            System.exit(1);
+        }
+
+        try (ProductStore store = new ProductStore(dataFile, "r");
+             ProductCostIndex index = new ProductCostIndex(store, true)) {
+            System.out.println("Indexed " + index.getIndexedCount() + " record(s) into " + indexFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
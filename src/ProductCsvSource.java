@@ -0,0 +1,113 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads Products from a CSV file (ID, name, description, cost per line) one at a time.
+ * Only the current line is held in memory, so files larger than the heap can be processed
+ * and output can start as soon as the first record is read.
+ */
+public class ProductCsvSource implements Iterator<Product>, Closeable {
+    public static final int FIELDS_LENGTH = 4;
+
+    private final BufferedReader reader;
+    private final Consumer<String> corruptRecords;
+    private final String[] fields = new String[FIELDS_LENGTH];
+    private Product next;
+
+    /**
+     * Opens a product CSV file
+     * @param file The file to read
+     * @param corruptRecords Receives each line that does not hold a valid product
+     * @throws IOException If the file cannot be opened
+     */
+    public ProductCsvSource(Path file, Consumer<String> corruptRecords) throws IOException {
+        this(Files.newBufferedReader(file, StandardCharsets.UTF_8), corruptRecords);
+    }
+
+    /**
+     * Reads products from an open reader
+     * @param reader The reader to take lines from
+     * @param corruptRecords Receives each line that does not hold a valid product
+     */
+    public ProductCsvSource(BufferedReader reader, Consumer<String> corruptRecords) {
+        this.reader = reader;
+        this.corruptRecords = corruptRecords;
+    }
+
+    /**
+     * Parses one CSV line
+     * @param line The line to parse
+     * @param fields Scratch array of at least FIELDS_LENGTH entries
+     * @return The Product, or null if the line is not a valid product
+     */
+    public static Product parse(CharSequence line, String[] fields) {
+        if (CsvSplitter.split(line, fields) != FIELDS_LENGTH) {
+            return null;
+        }
+        try {
+            return new Product(fields[1], fields[2], fields[0], Double.parseDouble(fields[3]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            String line;
+            while (next == null && (line = reader.readLine()) != null) {
+                next = parse(line, fields);
+                if (next == null) {
+                    corruptRecords.accept(line);
+                }
+            }
+            return next != null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Product next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Product product = next;
+        next = null;
+        return product;
+    }
+
+    /**
+     * Returns the remaining products as a lazy, sequential Stream.
+     * Closing the stream closes the file.
+     * @return A stream of products in file order
+     */
+    public Stream<Product> stream() {
+        Spliterator<Product> spliterator = Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            try {
+                close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
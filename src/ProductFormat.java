@@ -0,0 +1,257 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * On-disk record layouts for product data files.
+ *
+ * V1 is the original layout written by Product.writeToRandomFile: no file header and 240-byte
+ * records holding space-padded UTF-16 name, description and ID followed by the cost.
+ *
+ * V2 is a compact layout for mostly-ASCII data. The file starts with a 64-byte header
+ * (magic "PRD2", version, record size, record count) followed by 134-byte records:
+ * name and description as length-prefixed UTF-8 in fixed slots, the ID as 6 ASCII bytes,
+ * and the cost. Text longer than its slot is cut at a character boundary.
+ *
+ * In both layouts a deleted record (tombstone) is marked by an ID field of all zero bytes,
+ * which no written ID can produce since IDs are padded with spaces.
+ */
+public enum ProductFormat {
+    V1 {
+        @Override
+        public int headerSize() {
+            return 0;
+        }
+
+        @Override
+        public int recordSize() {
+            return Product.RECORD_SIZE;
+        }
+
+        @Override
+        public void encode(Product product, ByteBuffer buf, int offset) {
+            product.writeToBuffer(buf, offset);
+        }
+
+        @Override
+        public Product decode(ByteBuffer buf, int offset) {
+            return Product.readFromBuffer(buf, offset);
+        }
+    },
+
+    V2 {
+        @Override
+        public int headerSize() {
+            return V2_HEADER_SIZE;
+        }
+
+        @Override
+        public int recordSize() {
+            return V2_RECORD_SIZE;
+        }
+
+        @Override
+        public void encode(Product product, ByteBuffer buf, int offset) {
+            offset = putUtf8(buf, offset, product.getName(), Product.NAME_SIZE, V2_NAME_BYTES);
+            offset = putUtf8(buf, offset, product.getDescription(), Product.DESCRIPTION_SIZE, V2_DESCRIPTION_BYTES);
+            String id = product.getID() == null ? "" : product.getID();
+            for (int i = 0; i < Product.ID_SIZE; i++) {
+                char c = i < id.length() ? id.charAt(i) : ' ';
+                buf.put(offset + i, (byte) (c < 0x80 ? c : '?'));
+            }
+            offset += Product.ID_SIZE;
+            buf.putDouble(offset, product.getCost());
+        }
+
+        @Override
+        public Product decode(ByteBuffer buf, int offset) {
+            String name = getUtf8(buf, offset, V2_NAME_BYTES);
+            offset += V2_NAME_BYTES;
+            String description = getUtf8(buf, offset, V2_DESCRIPTION_BYTES);
+            offset += V2_DESCRIPTION_BYTES;
+            char[] id = new char[Product.ID_SIZE];
+            for (int i = 0; i < Product.ID_SIZE; i++) {
+                id[i] = (char) (buf.get(offset + i) & 0xFF);
+            }
+            offset += Product.ID_SIZE;
+            double cost = buf.getDouble(offset);
+
+            return new Product(name, description, new String(id).trim(), cost);
+        }
+    };
+
+    // V2 file header: magic, version, record size, record count, then reserved space
+    public static final int V2_MAGIC = 0x50524432; // "PRD2"
+    public static final short V2_VERSION = 2;
+    public static final int V2_HEADER_SIZE = 64;
+    public static final int V2_COUNT_OFFSET = 8;
+
+    // V2 field slots in bytes; each text slot is a 1-byte length followed by UTF-8
+    public static final int V2_NAME_BYTES = 40;
+    public static final int V2_DESCRIPTION_BYTES = 80;
+    public static final int V2_RECORD_SIZE = V2_NAME_BYTES + V2_DESCRIPTION_BYTES + Product.ID_SIZE + 8; // 134 bytes
+
+    // The largest record of any format, for sizing shared buffers
+    public static final int MAX_RECORD_SIZE = Product.RECORD_SIZE;
+
+    /**
+     * The fields of a record, for reading or writing one field on its own
+     */
+    public enum Field {
+        NAME, DESCRIPTION, ID, COST
+    }
+
+    /**
+     * Size of the file header in bytes
+     * @return The header size (0 if the format has no header)
+     */
+    public abstract int headerSize();
+
+    /**
+     * Size of one record in bytes
+     * @return The record size
+     */
+    public abstract int recordSize();
+
+    /**
+     * Writes a Product into a buffer at the given offset using absolute puts
+     * @param product The product to encode
+     * @param buf The buffer to write to
+     * @param offset Byte offset of the record within the buffer
+     */
+    public abstract void encode(Product product, ByteBuffer buf, int offset);
+
+    /**
+     * Reads a Product from a buffer at the given offset using absolute gets
+     * @param buf The buffer to read from
+     * @param offset Byte offset of the record within the buffer
+     * @return The decoded product
+     */
+    public abstract Product decode(ByteBuffer buf, int offset);
+
+    /**
+     * Byte offset of a field within a record
+     * @param field The field
+     * @return The offset from the start of the record
+     */
+    public int fieldOffset(Field field) {
+        int nameBytes = this == V1 ? Product.NAME_SIZE * 2 : V2_NAME_BYTES;
+        int descriptionBytes = this == V1 ? Product.DESCRIPTION_SIZE * 2 : V2_DESCRIPTION_BYTES;
+        switch (field) {
+            case NAME:
+                return 0;
+            case DESCRIPTION:
+                return nameBytes;
+            case ID:
+                return nameBytes + descriptionBytes;
+            default:
+                return recordSize() - 8;
+        }
+    }
+
+    /**
+     * Size of a field in bytes
+     * @param field The field
+     * @return The number of bytes the field takes up in every record
+     */
+    public int fieldSize(Field field) {
+        if (field == Field.COST) {
+            return 8;
+        }
+        return fieldOffset(Field.values()[field.ordinal() + 1]) - fieldOffset(field);
+    }
+
+    /**
+     * Tests whether an encoded record has been deleted
+     * @param buf The buffer holding the record
+     * @param offset Byte offset of the record within the buffer
+     * @return true if the record is a tombstone
+     */
+    public boolean isDeleted(ByteBuffer buf, int offset) {
+        int idOffset = offset + fieldOffset(Field.ID);
+        for (int i = 0; i < fieldSize(Field.ID); i++) {
+            if (buf.get(idOffset + i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Works out the format of an existing file from its first bytes
+     * @param channel The open data file
+     * @return V2 if the file starts with a V2 header, otherwise V1
+     * @throws IOException If the header cannot be read or names an unknown version
+     */
+    public static ProductFormat detect(FileChannel channel) throws IOException {
+        if (channel.size() < V2_HEADER_SIZE) {
+            return V1;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(8);
+        channel.read(header, 0);
+        if (header.getInt(0) != V2_MAGIC) {
+            return V1;
+        }
+        if (header.getShort(4) != V2_VERSION || header.getShort(6) != V2_RECORD_SIZE) {
+            throw new IOException("Unsupported product file version " + header.getShort(4)
+                    + " with record size " + header.getShort(6));
+        }
+        return V2;
+    }
+
+    /**
+     * Builds the file header for this format
+     * @param recordCount The number of records in the file
+     * @return The header bytes, or an empty buffer if the format has no header
+     */
+    public ByteBuffer header(long recordCount) {
+        ByteBuffer header = ByteBuffer.allocate(headerSize());
+        if (this == V2) {
+            header.putInt(0, V2_MAGIC);
+            header.putShort(4, V2_VERSION);
+            header.putShort(6, (short) V2_RECORD_SIZE);
+            header.putLong(V2_COUNT_OFFSET, recordCount);
+        }
+        return header;
+    }
+
+    /**
+     * Writes at most maxChars characters of str as length-prefixed UTF-8 into a slot of slotBytes
+     * @return The offset just past the slot
+     */
+    private static int putUtf8(ByteBuffer buf, int offset, String str, int maxChars, int slotBytes) {
+        if (str == null) {
+            str = "";
+        }
+        if (str.length() > maxChars) {
+            str = str.substring(0, maxChars);
+        }
+
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, slotBytes - 1);
+        // Don't cut a multi-byte character in half
+        while (length < bytes.length && length > 0 && (bytes[length] & 0xC0) == 0x80) {
+            length--;
+        }
+
+        buf.put(offset, (byte) length);
+        for (int i = 0; i < slotBytes - 1; i++) {
+            buf.put(offset + 1 + i, i < length ? bytes[i] : 0);
+        }
+        return offset + slotBytes;
+    }
+
+    /**
+     * Reads a length-prefixed UTF-8 slot
+     */
+    private static String getUtf8(ByteBuffer buf, int offset, int slotBytes) {
+        int length = Math.min(buf.get(offset) & 0xFF, slotBytes - 1);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buf.get(offset + 1 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
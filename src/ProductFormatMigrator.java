@@ -0,0 +1,96 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Converts a product data file from one record layout to another (V1 to V2 by default).
+ * Every record slot is copied, deleted ones included, so records keep their record numbers
+ * and the index files, the lock file and its free list stay valid.
+ *
+ * Usage: java ProductFormatMigrator [dataFile] [V1|V2]
+ * The file is converted into a temporary copy which then replaces the original.
+ */
+public class ProductFormatMigrator {
+    // Number of records converted per batch
+    private static final int BATCH_RECORDS = ProductStore.SCAN_BATCH_RECORDS;
+
+    /**
+     * Copies every record slot of source into a new file in the given format.
+     * Deleted records are written as tombstones in the new format.
+     * @param source The file to convert
+     * @param target The new file to create (must not exist)
+     * @param format The layout for the new file
+     * @return The number of records copied
+     * @throws IOException If an I/O error occurs
+     */
+    public static int migrate(File source, File target, ProductFormat format) throws IOException {
+        if (target.exists()) {
+            throw new IOException("Target file already exists: " + target);
+        }
+
+        try (ProductStore in = new ProductStore(source, "r");
+             FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE_NEW)) {
+            ProductFormat sourceFormat = in.getFormat();
+            int count = in.getRecordCount();
+            ByteBuffer records = ByteBuffer.allocate(BATCH_RECORDS * sourceFormat.recordSize());
+            ByteBuffer converted = ByteBuffer.allocate(BATCH_RECORDS * format.recordSize());
+            writeFully(out, format.header(count), 0);
+
+            long position = format.headerSize();
+            for (int from = 0; from < count; from += BATCH_RECORDS) {
+                int batch = Math.min(BATCH_RECORDS, count - from);
+                records.clear().limit(batch * sourceFormat.recordSize());
+                in.readRecords(records, from);
+
+                // A tombstone is an all-zero ID, so an all-zero record is one in either format
+                converted.clear();
+                converted.put(new byte[batch * format.recordSize()]).flip();
+                for (int i = 0; i < batch; i++) {
+                    int offset = i * sourceFormat.recordSize();
+                    if (!sourceFormat.isDeleted(records, offset)) {
+                        format.encode(sourceFormat.decode(records, offset), converted, i * format.recordSize());
+                    }
+                }
+                writeFully(out, converted, position);
+                position += converted.limit();
+            }
+            return count;
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += out.write(buf, position);
+        }
+    }
+
+    public static void main(String[] args) {
+        File dataFile = new File(args.length > 0 ? args[0] : "ProductData.dat");
+        ProductFormat format = args.length > 1 ? ProductFormat.valueOf(args[1].toUpperCase()) : ProductFormat.V2;
+
+        if (!dataFile.exists()) {
+            System.out.println("Product data file not found: " + dataFile);
+            System.exit(1);
+        }
+
+        File tempFile = new File(dataFile.getPath() + ".migrating");
+        try {
+            Files.deleteIfExists(tempFile.toPath());
+            Files.deleteIfExists(ProductLockFile.lockFileFor(tempFile).toPath());
+            int count = migrate(dataFile, tempFile, format);
+            Files.move(tempFile.toPath(), dataFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // Same record slots as before, so the data file's own lock file stays valid
+            Files.deleteIfExists(ProductLockFile.lockFileFor(tempFile).toPath());
+            System.out.println("Converted " + count + " record(s) in " + dataFile + " to " + format);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
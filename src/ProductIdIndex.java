@@ -0,0 +1,190 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Primary-key index from product ID to record number.
+ * Product IDs are 6 digits, so the index is a dense off-heap table with one slot per possible ID:
+ * a lookup is a single array read. The table is kept beside the data file (ProductData.dat.ids)
+ * and memory-mapped; IDs that are not 6 digits cannot be indexed and are left out.
+ *
+ * File layout: an 8-byte header holding the number of records indexed so far, then one int per ID
+ * holding record number + 1 (0 means the ID is not in use).
+ *
+ * The table has a fixed size of FILE_SIZE (just over 4 MB) however few records there are, so
+ * any ID can be looked up without growing or remapping it. A writable index maps the whole file,
+ * which the OS creates sparse where the file system allows, so disk space is only taken for
+ * the parts of the table holding IDs in use; a read-only index reads the whole file into memory.
+ */
+public class ProductIdIndex implements Closeable {
+    public static final String FILE_SUFFIX = ".ids";
+    public static final int ID_RANGE = 1_000_000;
+    private static final int HEADER_SIZE = 8;
+    private static final int FILE_SIZE = HEADER_SIZE + ID_RANGE * 4;
+
+    private final ProductStore store;
+    private final File indexFile;
+    private final ByteBuffer table;
+
+    /**
+     * Opens the ID index for a store and indexes any records added since it was last saved
+     * @param store The product store the index belongs to
+     * @param writable true to update the index file, false to keep changes in memory only
+     * @throws IOException If the index file cannot be read or written
+     */
+    public ProductIdIndex(ProductStore store, boolean writable) throws IOException {
+        this.store = store;
+        this.indexFile = indexFileFor(store.getFile());
+
+        if (writable) {
+            try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+                // Mapping past the end grows a new file to full size, filled with zeros
+                table = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+            }
+        } else {
+            table = ByteBuffer.allocateDirect(FILE_SIZE);
+            if (indexFile.length() == FILE_SIZE) {
+                try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+                    while (table.hasRemaining() && channel.read(table) >= 0) {
+                        // keep reading until the table is full
+                    }
+                }
+                table.clear();
+            }
+        }
+        update();
+    }
+
+    /**
+     * Returns the index file used for a data file
+     * @param dataFile The product data file
+     * @return The sidecar index file
+     */
+    public static File indexFileFor(File dataFile) {
+        return new File(dataFile.getPath() + FILE_SUFFIX);
+    }
+
+    /**
+     * Returns true if an ID can be held in the index (exactly 6 digits)
+     * @param id The product ID
+     * @return true if the ID is indexable
+     */
+    public static boolean isIndexable(String id) {
+        return slotFor(id) >= 0;
+    }
+
+    public int getIndexedCount() {
+        return table.getInt(0);
+    }
+
+    /**
+     * Indexes any records in the store that are not in the index yet
+     * @throws IOException If an I/O error occurs
+     */
+    public void update() throws IOException {
+        int indexedCount = getIndexedCount();
+        if (indexedCount < store.getRecordCount()) {
+            store.scan(indexedCount, store.getRecordCount(), product -> true,
+                    (product, recordNumber) -> put(product.getID(), recordNumber));
+        }
+    }
+
+    /**
+     * Looks up the record number for an ID
+     * @param id The product ID
+     * @return The record number, or -1 if the ID is not in use or not indexable
+     */
+    public int lookup(String id) {
+        int slot = slotFor(id);
+        if (slot < 0) {
+            return -1;
+        }
+        return table.getInt(HEADER_SIZE + slot * 4) - 1;
+    }
+
+    /**
+     * Records the ID of a newly written record.
+     * If the ID is already in use, the earlier record keeps it.
+     * @param id The product ID
+     * @param recordNumber The record number of the product
+     */
+    public void put(String id, int recordNumber) {
+        int slot = slotFor(id);
+        if (slot >= 0 && table.getInt(HEADER_SIZE + slot * 4) == 0) {
+            table.putInt(HEADER_SIZE + slot * 4, recordNumber + 1);
+        }
+        table.putInt(0, Math.max(getIndexedCount(), recordNumber + 1));
+    }
+
+    /**
+     * Forgets the ID of a record that was deleted or given a new ID.
+     * Nothing changes if the ID belongs to a different record.
+     * @param id The product ID the record had
+     * @param recordNumber The record number of the product
+     */
+    public void remove(String id, int recordNumber) {
+        int slot = slotFor(id);
+        if (slot >= 0 && table.getInt(HEADER_SIZE + slot * 4) == recordNumber + 1) {
+            table.putInt(HEADER_SIZE + slot * 4, 0);
+        }
+    }
+
+    /**
+     * Converts a 6-digit ID to its table slot
+     * @return The slot, or -1 if the ID is not exactly 6 digits
+     */
+    private static int slotFor(String id) {
+        if (id == null || id.length() != Product.ID_SIZE) {
+            return -1;
+        }
+        int slot = 0;
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            slot = slot * 10 + (c - '0');
+        }
+        return slot;
+    }
+
+    /**
+     * Writes any changes back to the index file
+     */
+    @Override
+    public void close() {
+        if (table instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) table).force();
+        }
+    }
+
+    /**
+     * Rebuilds the ID index for an existing data file.
+     * Usage: java ProductIdIndex [dataFile] (defaults to ProductData.dat)
+     */
+    public static void main(String[] args) {
+        File dataFile = new File(args.length > 0 ? args[0] : "ProductData.dat");
+        if (!dataFile.exists()) {
+            System.out.println("Product data file not found: " + dataFile);
+            System.exit(1);
+        }
+
+        File indexFile = indexFileFor(dataFile);
+        if (indexFile.exists() && !indexFile.delete()) {
+            System.out.println("Could not delete old index: " + indexFile);
+            System.exit(1);
+        }
+
+        try (ProductStore store = new ProductStore(dataFile, "r");
+             ProductIdIndex index = new ProductIdIndex(store, true)) {
+            System.out.println("Indexed " + index.getIndexedCount() + " record(s) into " + indexFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Loads a product CSV file (ID, name, description, cost per line, as in ProductTestData.txt)
+ * into a product data file. Lines are parsed on every core by ParallelCsvParser, handed over in
+ * file order, and appended in large batches, each encoded into one buffer and written with a
+ * single FileChannel write.
+ *
+ * Usage: java ProductImporter csvFile [dataFile] [V1|V2]
+ * New records go after any already in the data file; the format only applies to a new file.
+ * The name and ID indexes catch up with the imported records the next time they are opened.
+ */
+public class ProductImporter {
+    // Number of records written per batch
+    private static final int BATCH_RECORDS = ProductStore.SCAN_BATCH_RECORDS;
+
+    /**
+     * Appends every valid product in a CSV file to a store
+     * @param csvFile The CSV file to read
+     * @param store The store to append to (opened read/write)
+     * @param corruptRecords Receives each line that does not hold a valid product
+     * @return The number of products imported
+     * @throws IOException If either file cannot be read or written
+     */
+    public static int importCsv(Path csvFile, ProductStore store, Consumer<String> corruptRecords)
+            throws IOException {
+        int[] imported = {0};
+        List<Product> batch = new ArrayList<>(BATCH_RECORDS);
+        ParallelCsvParser<Product> parser = new ParallelCsvParser<>(ProductCsvSource::parse,
+                ProductCsvSource.FIELDS_LENGTH);
+        try {
+            // Ordered, so records are numbered in file order; products arrive on this thread
+            parser.parse(csvFile, true, product -> {
+                batch.add(product);
+                if (batch.size() == BATCH_RECORDS) {
+                    imported[0] += appendBatch(store, batch);
+                }
+            }, corruptRecords);
+            if (!batch.isEmpty()) {
+                imported[0] += appendBatch(store, batch);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted importing " + csvFile, e);
+        }
+        return imported[0];
+    }
+
+    /**
+     * Appends a batch to the store and empties it
+     * @return The number of products appended
+     */
+    private static int appendBatch(ProductStore store, List<Product> batch) {
+        try {
+            store.appendAll(batch);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int count = batch.size();
+        batch.clear();
+        return count;
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("Usage: java ProductImporter csvFile [dataFile] [V1|V2]");
+            System.exit(1);
+        }
+        Path csvFile = Paths.get(args[0]);
+        File dataFile = new File(args.length > 1 ? args[1] : "ProductData.dat");
+        ProductFormat format = args.length > 2 ? ProductFormat.valueOf(args[2].toUpperCase()) : ProductFormat.V1;
+
+        int[] corrupt = new int[1];
+        long start = System.nanoTime();
+        try (ProductStore store = new ProductStore(dataFile, "rw", format)) {
+            int count = importCsv(csvFile, store, line -> {
+                corrupt[0]++;
+                System.out.println("Skipping corrupt record: " + line);
+            });
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("Imported " + count + " record(s) into " + dataFile + " in " + millis + " ms"
+                    + (corrupt[0] > 0 ? " (" + corrupt[0] + " corrupt line(s) skipped)" : ""));
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
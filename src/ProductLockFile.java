@@ -0,0 +1,974 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Coordinates writers and readers of one product data file across threads and processes.
+ * The state lives in a small file beside the data file (ProductData.dat.lock):
+ *
+ *   0  long   reserved   - record slots handed out to writers so far
+ *   8  long   committed  - records that are completely written, with no gaps before them
+ *  16  long   generation - bumped whenever the data file is replaced by compaction
+ *  24  long   modified   - bumped whenever a committed record is changed in place
+ *  32  int    free count - number of deleted record slots waiting to be reused
+ *  36  reservations      - per writer process, MAX_RESERVATIONS entries of 16 bytes, one for each
+ *                          reservation it has not committed: long 1 + the first slot (0 if the
+ *                          entry is unused), int slot count, int 1 if the writer gave up on it
+ * 32804 int[] free slots - the deleted record numbers, most recently deleted last
+ *
+ * A writer reserves slots, writes them without holding any lock, then commits them. A commit
+ * only moves the committed count past its slots once every earlier slot is committed, so the
+ * count never covers a record that is half written or a gap left by a slower writer. Readers
+ * take the committed count as their record count (see ProductStore.refresh) and never lock.
+ * A writer that is alive is always waited for, however slow it is.
+ *
+ * Every process with the file open for writing holds an OS lock on one of MAX_WRITERS bytes far
+ * past the state for as long as it is open, which the OS drops if the process dies. A
+ * reservation before the first slot any live process is still writing whose writer died
+ * mid-write, or gave up on it, is recovered when a writer opens the file, when a commit has
+ * waited RECOVERY_CHECK_MILLIS for it, and before compaction: its slots are zeroed, so they read
+ * as deleted records, put on the free list, and committed. Slots no reservation covers hold
+ * records written without the lock file (by Product.writeToRandomFile, or a data file copied in
+ * place) and are committed as they are, as are whole records found past the committed count
+ * when no slots are reserved.
+ *
+ * Readers that cache records or index entries compare the modified count with the one they
+ * last saw to find out whether anything they hold may be out of date.
+ *
+ * Compaction (see ProductCompactor) replaces the data file with a new one, which renumbers the
+ * records. Every write names the generation of the file it has open, and is refused once the
+ * file has been replaced, so that nothing is written to a file that is no longer in use.
+ *
+ * Every change holds an OS file lock on the state just long enough to read and update it.
+ * Files kept beside the data file, such as its indexes, are read under a separate lock, so
+ * building an index never holds up writers, only compaction. Closing any channel on a file
+ * can release every lock the process holds on it, so all ProductLockFiles in one process
+ * share a single channel per lock file.
+ */
+public class ProductLockFile implements Closeable {
+    public static final String FILE_SUFFIX = ".lock";
+    public static final int MAX_WRITERS = 64;
+    public static final int MAX_RESERVATIONS = 32;
+    private static final int RESERVED_OFFSET = 0;
+    private static final int COMMITTED_OFFSET = 8;
+    private static final int GENERATION_OFFSET = 16;
+    private static final int MODIFIED_OFFSET = 24;
+    private static final int FREE_COUNT_OFFSET = 32;
+    private static final int RESERVATIONS_OFFSET = 36;
+    private static final int RESERVATION_SIZE = 16;
+    private static final int ROW_SIZE = MAX_RESERVATIONS * RESERVATION_SIZE;
+    private static final int FREE_SLOTS_OFFSET = RESERVATIONS_OFFSET + MAX_WRITERS * ROW_SIZE;
+    private static final int STATE_SIZE = RESERVATIONS_OFFSET;
+
+    // Each writer process locks one byte from here on, well past anything the state can grow to
+    private static final long LIVENESS_OFFSET = 1L << 62;
+
+    // Stores opening indexes share the byte before that, which compaction locks to swap files
+    private static final long FILES_OFFSET = LIVENESS_OFFSET - 1;
+
+    // How long a commit waits for earlier slots before checking whether their writer has died
+    private static final long RECOVERY_CHECK_MILLIS = 100;
+
+    // Deleted records are all zero bytes, written this many slots at a time
+    private static final int ZERO_FILL_BYTES = 64 << 10;
+
+    // One channel per lock file in this process, keyed by canonical path
+    private static final Map<String, SharedChannel> CHANNELS = new HashMap<>();
+
+    private final SharedChannel shared;
+    private final FileChannel channel;
+    // FileLock is held per JVM, so threads of this process take turns on the shared channel
+    private final Object monitor;
+    private final File dataFile;
+    private final ProductFormat format;
+    private final ByteBuffer state = ByteBuffer.allocate(STATE_SIZE);
+    private boolean writer;
+    private boolean closed;
+
+    /**
+     * Opens the lock file for a store, creating it if the store is writable
+     * @param store The product store the lock file belongs to
+     * @param writable true to reserve and commit records, false to only read the committed count
+     * @throws IOException If the lock file cannot be opened, or MAX_WRITERS processes are writing
+     */
+    public ProductLockFile(ProductStore store, boolean writable) throws IOException {
+        File lockFile = lockFileFor(store.getFile());
+        this.shared = SharedChannel.open(lockFile, writable);
+        this.channel = shared.channel;
+        this.monitor = shared;
+        this.dataFile = store.getFile();
+        this.format = store.getFormat();
+
+        if (writable) {
+            try {
+                openForWriting(store.getRecordCount());
+            } catch (IOException | RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Claims this process's writer slot, resetting the state if it is left over from another
+     * data file, recovers slots left by writers that died, and commits records added to the
+     * data file without the lock file
+     */
+    private void openForWriting(int recordCount) throws IOException {
+        synchronized (monitor) {
+            FileLock lock = lockState();
+            try {
+                // Committed records are always in the file, so a larger count is left over
+                // from a data file that has since been deleted or replaced
+                long generation = 0;
+                long modified = 0;
+                boolean reset = channel.size() < STATE_SIZE;
+                if (!reset) {
+                    readState();
+                    generation = state.getLong(GENERATION_OFFSET);
+                    modified = state.getLong(MODIFIED_OFFSET) + 1;
+                    reset = state.getLong(COMMITTED_OFFSET) > recordCount;
+                }
+
+                // A new lock file starts with every record already in the data file committed
+                if (reset) {
+                    state.clear();
+                    state.putLong(RESERVED_OFFSET, recordCount)
+                            .putLong(COMMITTED_OFFSET, recordCount)
+                            .putLong(GENERATION_OFFSET, generation)
+                            .putLong(MODIFIED_OFFSET, modified)
+                            .putInt(FREE_COUNT_OFFSET, 0);
+                    writeState();
+                    channel.truncate(STATE_SIZE);
+                } else {
+                    recoverDeadReservations();
+                    adoptRecords(recordCount);
+                }
+
+                if (shared.writers == 0) {
+                    shared.claimWriterSlot(dataFile);
+                }
+                shared.writers++;
+                writer = true;
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Returns the lock file used for a data file
+     * @param dataFile The product data file
+     * @return The lock file beside it
+     */
+    public static File lockFileFor(File dataFile) {
+        return new File(dataFile.getPath() + FILE_SUFFIX);
+    }
+
+    /**
+     * Returns the number of fully written records, without locking.
+     * @return The committed record count, or -1 if the lock file has not been initialised
+     * @throws IOException If the lock file cannot be read
+     */
+    public long getCommittedCount() throws IOException {
+        return readLong(COMMITTED_OFFSET);
+    }
+
+    /**
+     * Returns how many times committed records have been changed in place, without locking
+     * @return The modified count, or -1 if the lock file has not been initialised
+     * @throws IOException If the lock file cannot be read
+     */
+    public long getModificationCount() throws IOException {
+        return readLong(MODIFIED_OFFSET);
+    }
+
+    /**
+     * Returns the number of deleted record slots waiting to be reused, without locking
+     * @return The free slot count
+     * @throws IOException If the lock file cannot be read
+     */
+    public int getFreeSlotCount() throws IOException {
+        ByteBuffer count = ByteBuffer.allocate(4);
+        return channel.read(count, FREE_COUNT_OFFSET) == 4 ? count.getInt(0) : 0;
+    }
+
+    /**
+     * Returns how many times the data file has been replaced by compaction, without locking
+     * @return The generation, or -1 if the lock file has not been initialised
+     * @throws IOException If the lock file cannot be read
+     */
+    public long getGeneration() throws IOException {
+        return readLong(GENERATION_OFFSET);
+    }
+
+    /**
+     * Returns the generation recorded beside a data file, without opening it for long
+     * @param dataFile The product data file
+     * @return The generation, or 0 if the data file has no lock file yet
+     * @throws IOException If the lock file cannot be read
+     */
+    public static long generationOf(File dataFile) throws IOException {
+        File lockFile = lockFileFor(dataFile);
+        if (!lockFile.exists()) {
+            return 0;
+        }
+        ByteBuffer value = ByteBuffer.allocate(8);
+        synchronized (CHANNELS) {
+            // Closing a second channel would release this process's locks, so one that is open is used
+            SharedChannel shared = CHANNELS.get(lockFile.getCanonicalPath());
+            if (shared != null) {
+                return shared.channel.read(value, GENERATION_OFFSET) == 8 ? value.getLong(0) : 0;
+            }
+            try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.READ)) {
+                return channel.read(value, GENERATION_OFFSET) == 8 ? value.getLong(0) : 0;
+            }
+        }
+    }
+
+    /**
+     * A write to the data file, made while the lock file is locked unless stated otherwise
+     */
+    public interface Change {
+        void apply() throws IOException;
+    }
+
+    /**
+     * Writes to a record slot being reused, made while the lock file is locked
+     */
+    public interface SlotWriter {
+        /**
+         * @param recordNumber A slot taken off the free list
+         * @return true if the slot was written, false to skip it (it has been written over since)
+         */
+        boolean write(int recordNumber) throws IOException;
+    }
+
+    /**
+     * Replaces the data file, made while the lock file is locked
+     */
+    public interface Replacement {
+        /**
+         * @param committed The committed record count of the file being replaced
+         * @return The record count of the new data file
+         */
+        long replace(long committed) throws IOException;
+    }
+
+    /**
+     * Reads files that belong to one generation of the data file, made while the lock file is locked
+     */
+    public interface GenerationReader<T> {
+        T read() throws IOException;
+    }
+
+    /**
+     * Changes committed records in place and counts the change as a modification.
+     * The change is only made if the data file has not been replaced since the caller opened it,
+     * since record numbers from before a compaction point at different records afterwards.
+     * @param generation The generation of the data file the caller has open
+     * @param change Writes the new bytes
+     * @return The new modified count, or -1 if the data file was replaced and nothing was written
+     * @throws IOException If either file cannot be read or written
+     */
+    public long modify(long generation, Change change) throws IOException {
+        synchronized (monitor) {
+            FileLock lock = lockState();
+            try {
+                readState();
+                if (state.getLong(GENERATION_OFFSET) != generation) {
+                    return -1;
+                }
+                change.apply();
+                long modified = state.getLong(MODIFIED_OFFSET) + 1;
+                state.putLong(MODIFIED_OFFSET, modified);
+                writeState();
+                return modified;
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Deletes a record and adds its slot to the free list (see modify)
+     * @param generation The generation of the data file the caller has open
+     * @param recordNumber The record number being deleted
+     * @param tombstone Writes the tombstone over the record
+     * @return The new modified count, or -1 if the data file was replaced and nothing was written
+     * @throws IOException If either file cannot be read or written
+     */
+    public long freeSlot(long generation, int recordNumber, Change tombstone) throws IOException {
+        synchronized (monitor) {
+            FileLock lock = lockState();
+            try {
+                readState();
+                if (state.getLong(GENERATION_OFFSET) != generation) {
+                    return -1;
+                }
+                tombstone.apply();
+                addFreeSlots(recordNumber, recordNumber + 1);
+                long modified = state.getLong(MODIFIED_OFFSET) + 1;
+                state.putLong(MODIFIED_OFFSET, modified);
+                writeState();
+                return modified;
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Takes freed record slots off the free list, most recently freed first, until the writer
+     * accepts one, and counts the write as a modification
+     * @param generation The generation of the data file the caller has open
+     * @param writer Writes the new record into a slot
+     * @return The record number written, or -1 if there are no free slots or the data file was replaced
+     * @throws IOException If either file cannot be read or written
+     */
+    public int reuseFreeSlot(long generation, SlotWriter writer) throws IOException {
+        synchronized (monitor) {
+            FileLock lock = lockState();
+            try {
+                readState();
+                if (state.getLong(GENERATION_OFFSET) != generation) {
+                    return -1;
+                }
+
+                int freeCount = state.getInt(FREE_COUNT_OFFSET);
+                int recordNumber = -1;
+                ByteBuffer slot = ByteBuffer.allocate(4);
+                while (recordNumber < 0 && freeCount > 0) {
+                    freeCount--;
+                    slot.clear();
+                    channel.read(slot, FREE_SLOTS_OFFSET + freeCount * 4L);
+                    if (writer.write(slot.getInt(0))) {
+                        recordNumber = slot.getInt(0);
+                    }
+                }
+
+                state.putInt(FREE_COUNT_OFFSET, freeCount);
+                if (recordNumber >= 0) {
+                    state.putLong(MODIFIED_OFFSET, state.getLong(MODIFIED_OFFSET) + 1);
+                }
+                writeState();
+                channel.truncate(FREE_SLOTS_OFFSET + freeCount * 4L);
+                return recordNumber;
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Claims count consecutive record slots, which the caller must then fill with write().
+     * Waits while this process has MAX_RESERVATIONS reservations outstanding.
+     * @param count Number of records to reserve
+     * @param fileRecordCount Whole records currently in the data file, so slots are never
+     *                        handed out over records written without this lock file
+     * @param generation The generation of the data file the caller has open
+     * @return The first record number claimed, or -1 if the data file was replaced
+     * @throws IOException If the lock file cannot be read or written
+     */
+    public long reserve(int count, long fileRecordCount, long generation) throws IOException {
+        synchronized (monitor) {
+            long recoveryCheck = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RECOVERY_CHECK_MILLIS);
+            while (true) {
+                FileLock lock = lockState();
+                try {
+                    readState();
+                    if (state.getLong(GENERATION_OFFSET) != generation) {
+                        return -1;
+                    }
+                    int entry = freeEntry();
+                    if (entry >= 0) {
+                        adoptRecords(fileRecordCount);
+                        long first = Math.max(Math.max(state.getLong(RESERVED_OFFSET),
+                                state.getLong(COMMITTED_OFFSET)), fileRecordCount);
+                        // Recorded before the slots are handed out, so they are never left uncovered
+                        writeReservation(shared.writerSlot, entry, first + 1, count, 0);
+                        state.putLong(RESERVED_OFFSET, first + count);
+                        writeState();
+                        shared.entries.set(entry);
+                        shared.reservations.put(first, entry);
+                        return first;
+                    }
+                    // Entries given up on are only freed by recovery
+                    if (System.nanoTime() > recoveryCheck) {
+                        recoverDeadReservations();
+                        recoveryCheck = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RECOVERY_CHECK_MILLIS);
+                    }
+                } finally {
+                    lock.release();
+                }
+
+                try {
+                    monitor.wait(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting to reserve " + count + " record(s)", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns an entry in this process's row that is neither in use nor given up on, or -1.
+     * Called holding the state lock.
+     */
+    private int freeEntry() throws IOException {
+        ByteBuffer row = readRow(shared.writerSlot);
+        for (int entry = shared.entries.nextClearBit(0); entry < MAX_RESERVATIONS;
+                entry = shared.entries.nextClearBit(entry + 1)) {
+            if (row.getLong(entry * RESERVATION_SIZE) == 0) {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Commits whole records past the committed count when no slots are reserved, which were
+     * written without the lock file. Called holding the exclusive lock, with the state read;
+     * the caller writes the state.
+     */
+    private void adoptRecords(long fileRecordCount) throws IOException {
+        long committed = state.getLong(COMMITTED_OFFSET);
+        if (state.getLong(RESERVED_OFFSET) == committed && fileRecordCount > committed) {
+            state.putLong(RESERVED_OFFSET, fileRecordCount).putLong(COMMITTED_OFFSET, fileRecordCount);
+            writeState();
+        }
+    }
+
+    /**
+     * Swaps in a compacted data file, if nothing has changed since the compactor took its copy.
+     * The swap is refused while any reserved slots are still uncommitted, since their writers
+     * are writing to the old file, and if a committed record was changed in place, since the
+     * copy would not have the change. Records appended since the copy are for the replacement
+     * to carry over. Afterwards the generation is bumped, so every store reopens the new file,
+     * and the free list is emptied.
+     * @param generation The generation the copy was taken from
+     * @param modified The modified count when the copy was taken
+     * @param replacement Finishes the copy and moves it over the data file
+     * @return true if the data file was replaced, false if the caller should try again
+     * @throws IOException If either file cannot be read or written
+     */
+    public boolean replaceDataFile(long generation, long modified, Replacement replacement) throws IOException {
+        // Taken before the state, so writers carry on while indexes being opened are finished
+        shared.files.writeLock().lock();
+        FileLock filesLock = null;
+        try {
+            filesLock = channel.lock(FILES_OFFSET, 1, false);
+            return replaceLocked(generation, modified, replacement);
+        } finally {
+            if (filesLock != null) {
+                filesLock.release();
+            }
+            shared.files.writeLock().unlock();
+        }
+    }
+
+    private boolean replaceLocked(long generation, long modified, Replacement replacement) throws IOException {
+        synchronized (monitor) {
+            FileLock lock = lockState();
+            try {
+                readState();
+                recoverDeadReservations();
+                long committed = state.getLong(COMMITTED_OFFSET);
+                if (state.getLong(GENERATION_OFFSET) != generation || state.getLong(MODIFIED_OFFSET) != modified
+                        || state.getLong(RESERVED_OFFSET) != committed) {
+                    return false;
+                }
+
+                long count = replacement.replace(committed);
+                state.clear();
+                state.putLong(RESERVED_OFFSET, count)
+                        .putLong(COMMITTED_OFFSET, count)
+                        .putLong(GENERATION_OFFSET, generation + 1)
+                        .putLong(MODIFIED_OFFSET, modified + 1)
+                        .putInt(FREE_COUNT_OFFSET, 0);
+                writeState();
+                channel.truncate(STATE_SIZE);
+                return true;
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Reads files kept beside the data file, such as its indexes, while it cannot be replaced.
+     * Compaction moves the new files into place one at a time while holding the files lock, so
+     * sharing it means they are never read part way through, and the generation check means they
+     * are never read for a data file other than the caller's. Only compaction waits for the
+     * reader; the state stays unlocked, so writers do not.
+     * @param generation The generation of the data file the caller has open
+     * @param reader Reads the files
+     * @return The reader's result, or null if the data file was replaced and nothing was read
+     * @throws IOException If the lock file cannot be read, or the reader fails
+     */
+    public <T> T readGeneration(long generation, GenerationReader<T> reader) throws IOException {
+        shared.files.readLock().lock();
+        try {
+            shared.shareFiles();
+            try {
+                // Compaction bumps the generation before it lets go of the files lock
+                if (Math.max(readLong(GENERATION_OFFSET), 0) != generation) {
+                    return null;
+                }
+                return reader.read();
+            } finally {
+                shared.unshareFiles();
+            }
+        } finally {
+            shared.files.readLock().unlock();
+        }
+    }
+
+    /**
+     * Fills reserved slots and commits them once every earlier slot is committed.
+     * The slots are written without the lock. If the write fails they are zeroed, so they
+     * read as deleted records, and committed anyway, so later writers are not held up.
+     * @param start The first record number reserved
+     * @param end One past the last record number reserved
+     * @param records Writes the records, without the lock file locked
+     * @param dataChannel The data file, whose V2 header count is updated to match
+     * @param format The data file's layout
+     * @return The committed record count afterwards
+     * @throws IOException If either file cannot be read or written
+     */
+    public long write(long start, long end, Change records, FileChannel dataChannel, ProductFormat format)
+            throws IOException {
+        try {
+            records.apply();
+        } catch (IOException | RuntimeException e) {
+            try {
+                zeroSlots(dataChannel, format, start, end);
+                commit(start, end, dataChannel, format, true);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+                // Left for recovery once the slots are no longer counted as this process's
+                try {
+                    abandon(start);
+                } catch (IOException alsoSuppressed) {
+                    e.addSuppressed(alsoSuppressed);
+                }
+            }
+            throw e;
+        }
+        return commit(start, end, dataChannel, format, false);
+    }
+
+    /**
+     * Marks reserved slots as written, once every earlier slot is committed or recovered
+     * @param free true to add the slots to the free list, for slots that were zeroed
+     */
+    private long commit(long start, long end, FileChannel dataChannel, ProductFormat format, boolean free)
+            throws IOException {
+        synchronized (monitor) {
+            long recoveryCheck = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RECOVERY_CHECK_MILLIS);
+            while (true) {
+                FileLock lock = lockState();
+                try {
+                    readState();
+                    if (state.getLong(COMMITTED_OFFSET) < start && System.nanoTime() > recoveryCheck) {
+                        recoverDeadReservations();
+                        recoveryCheck = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RECOVERY_CHECK_MILLIS);
+                    }
+                    long committed = state.getLong(COMMITTED_OFFSET);
+                    if (committed >= start) {
+                        committed = Math.max(committed, end);
+                        state.putLong(COMMITTED_OFFSET, committed);
+                        if (free) {
+                            addFreeSlots(start, end);
+                        }
+                        writeState();
+                        writeHeaderCount(dataChannel, format, committed);
+                        int entry = shared.reservations.remove(start);
+                        writeReservation(shared.writerSlot, entry, 0, 0, 0);
+                        shared.entries.clear(entry);
+                        monitor.notifyAll();
+                        return committed;
+                    }
+                } finally {
+                    lock.release();
+                }
+
+                // An earlier writer is still writing. Writers in this process wake us when they
+                // commit; the timeout catches commits made by other processes.
+                try {
+                    monitor.wait(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting to commit records " + start + "-" + end, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks a reservation as given up on, so it is recovered like a dead writer's
+     */
+    private void abandon(long start) throws IOException {
+        synchronized (monitor) {
+            int entry = shared.reservations.remove(start);
+            FileLock lock = lockState();
+            try {
+                ByteBuffer abandoned = ByteBuffer.allocate(4).putInt(0, 1);
+                while (abandoned.hasRemaining()) {
+                    channel.write(abandoned, entryOffset(shared.writerSlot, entry) + 12 + abandoned.position());
+                }
+            } finally {
+                lock.release();
+            }
+            shared.entries.clear(entry);
+            monitor.notifyAll();
+        }
+    }
+
+    /**
+     * Zeroes and commits the reservations before the first slot any live writer is still
+     * writing whose writers died mid-write or gave up on them, and commits the slots between
+     * them that no reservation covers as they are. Called holding the exclusive lock, with
+     * the state read.
+     */
+    private void recoverDeadReservations() throws IOException {
+        long committed = state.getLong(COMMITTED_OFFSET);
+        long reserved = state.getLong(RESERVED_OFFSET);
+        ByteBuffer table = ByteBuffer.allocate(MAX_WRITERS * ROW_SIZE);
+        while (table.hasRemaining() && channel.read(table, RESERVATIONS_OFFSET + table.position()) > 0) {
+            // keep reading until the table is complete
+        }
+        int entries = table.position() / RESERVATION_SIZE;
+
+        // The first slot a live writer is still writing
+        long liveFirst = reserved;
+        Boolean[] alive = new Boolean[MAX_WRITERS];
+        for (int i = 0; i < entries; i++) {
+            long first = table.getLong(i * RESERVATION_SIZE) - 1;
+            if (first >= 0 && isLive(table, i, alive)) {
+                liveFirst = Math.min(liveFirst, first);
+            }
+        }
+        liveFirst = Math.max(liveFirst, committed);
+
+        // Dead reservations from before it are zeroed; those after it are left for later, unless
+        // their writer died before handing them out or after committing them
+        List<long[]> dead = new ArrayList<>();
+        List<Integer> cleared = new ArrayList<>();
+        for (int i = 0; i < entries; i++) {
+            long first = table.getLong(i * RESERVATION_SIZE) - 1;
+            if (first < 0 || isLive(table, i, alive)) {
+                continue;
+            }
+            long end = first + table.getInt(i * RESERVATION_SIZE + 8);
+            if (first < liveFirst && end > committed) {
+                dead.add(new long[] {Math.max(first, committed), Math.min(end, liveFirst)});
+            }
+            if (first < liveFirst || first >= reserved) {
+                cleared.add(i);
+            }
+        }
+
+        if (liveFirst > committed) {
+            try (FileChannel data = FileChannel.open(dataFile.toPath(), StandardOpenOption.WRITE)) {
+                for (long[] range : dead) {
+                    zeroSlots(data, format, range[0], range[1]);
+                }
+                data.force(false);
+                writeHeaderCount(data, format, liveFirst);
+            }
+            for (long[] range : dead) {
+                addFreeSlots(range[0], range[1]);
+            }
+            state.putLong(COMMITTED_OFFSET, liveFirst);
+            writeState();
+            monitor.notifyAll();
+        }
+        for (int i : cleared) {
+            writeReservation(i / MAX_RESERVATIONS, i % MAX_RESERVATIONS, 0, 0, 0);
+        }
+    }
+
+    /**
+     * Returns true if an entry of the reservation table belongs to a writer still writing it
+     */
+    private boolean isLive(ByteBuffer table, int entry, Boolean[] alive) throws IOException {
+        if (table.getInt(entry * RESERVATION_SIZE + 12) != 0) {
+            return false;
+        }
+        int slot = entry / MAX_RESERVATIONS;
+        if (slot == shared.writerSlot) {
+            return true;
+        }
+        if (alive[slot] == null) {
+            alive[slot] = shared.isAlive(slot);
+        }
+        return alive[slot];
+    }
+
+    /**
+     * Appends record slots to the free list and counts them in the state, which the caller writes
+     */
+    private void addFreeSlots(long start, long end) throws IOException {
+        int freeCount = state.getInt(FREE_COUNT_OFFSET);
+        ByteBuffer slots = ByteBuffer.allocate((int) (end - start) * 4);
+        for (long slot = start; slot < end; slot++) {
+            slots.putInt((int) slot);
+        }
+        slots.flip();
+        while (slots.hasRemaining()) {
+            channel.write(slots, FREE_SLOTS_OFFSET + freeCount * 4L + slots.position());
+        }
+        state.putInt(FREE_COUNT_OFFSET, freeCount + (int) (end - start));
+    }
+
+    /**
+     * Overwrites record slots with zeros, which read as deleted records
+     */
+    private static void zeroSlots(FileChannel data, ProductFormat format, long start, long end) throws IOException {
+        ByteBuffer zeros = ByteBuffer.allocate(ZERO_FILL_BYTES);
+        long position = format.headerSize() + start * format.recordSize();
+        long endPosition = format.headerSize() + end * format.recordSize();
+        while (position < endPosition) {
+            zeros.clear().limit((int) Math.min(ZERO_FILL_BYTES, endPosition - position));
+            while (zeros.hasRemaining()) {
+                position += data.write(zeros, position);
+            }
+        }
+    }
+
+    private static void writeHeaderCount(FileChannel data, ProductFormat format, long committed) throws IOException {
+        if (format.headerSize() > 0) {
+            ByteBuffer header = ByteBuffer.allocate(8).putLong(0, committed);
+            while (header.hasRemaining()) {
+                data.write(header, ProductFormat.V2_COUNT_OFFSET + header.position());
+            }
+        }
+    }
+
+    /**
+     * Locks the state (everything but the writer slots)
+     */
+    private FileLock lockState() throws IOException {
+        return channel.lock(0, FILES_OFFSET, false);
+    }
+
+    private static long entryOffset(int slot, int entry) {
+        return RESERVATIONS_OFFSET + (long) slot * ROW_SIZE + (long) entry * RESERVATION_SIZE;
+    }
+
+    private void writeReservation(int slot, int entry, long first, int count, int abandoned) throws IOException {
+        ByteBuffer value = ByteBuffer.allocate(RESERVATION_SIZE).putLong(0, first).putInt(8, count).putInt(12, abandoned);
+        while (value.hasRemaining()) {
+            channel.write(value, entryOffset(slot, entry) + value.position());
+        }
+    }
+
+    /**
+     * Reads a writer slot's row of the reservation table; entries past the end of the file read as unused
+     */
+    private ByteBuffer readRow(int slot) throws IOException {
+        ByteBuffer row = ByteBuffer.allocate(ROW_SIZE);
+        while (row.hasRemaining() && channel.read(row, entryOffset(slot, 0) + row.position()) > 0) {
+            // keep reading until the row is complete
+        }
+        return row.clear();
+    }
+
+    private long readLong(int offset) throws IOException {
+        ByteBuffer value = ByteBuffer.allocate(8);
+        return channel.read(value, offset) == 8 ? value.getLong(0) : -1;
+    }
+
+    private void readState() throws IOException {
+        state.clear();
+        while (state.hasRemaining() && channel.read(state, state.position()) > 0) {
+            // keep reading until the state is complete
+        }
+        if (state.hasRemaining()) {
+            throw new IOException("Lock file is truncated");
+        }
+    }
+
+    private void writeState() throws IOException {
+        state.clear();
+        while (state.hasRemaining()) {
+            channel.write(state, state.position());
+        }
+    }
+
+    /**
+     * Closes the lock file, releasing this process's writer slot once its last writer closes
+     * @throws IOException If an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (CHANNELS) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            synchronized (monitor) {
+                if (writer && --shared.writers == 0) {
+                    shared.releaseWriterSlot();
+                }
+            }
+            shared.release();
+        }
+    }
+
+    /**
+     * The channel every ProductLockFile in this process uses for one lock file, with this
+     * process's writer slot and the reservations it has not committed yet
+     */
+    private static class SharedChannel {
+        final String path;
+        final FileChannel channel;
+        // First slot -> entry in this process's row of each reservation not yet committed
+        final Map<Long, Integer> reservations = new HashMap<>();
+        final BitSet entries = new BitSet(MAX_RESERVATIONS);
+        // Threads reading files beside the data file share one OS lock; compaction's swap excludes them
+        final ReentrantReadWriteLock files = new ReentrantReadWriteLock();
+        private final Object filesMonitor = new Object();
+        private int fileReaders;
+        private FileLock filesLock;
+        int users;
+        int writers;
+        int writerSlot = -1;
+        FileLock writerLock;
+
+        private SharedChannel(String path, FileChannel channel) {
+            this.path = path;
+            this.channel = channel;
+        }
+
+        /**
+         * Returns the lock file's shared channel, opening it if this process has not yet
+         */
+        static SharedChannel open(File lockFile, boolean create) throws IOException {
+            String path = lockFile.getCanonicalPath();
+            synchronized (CHANNELS) {
+                SharedChannel shared = CHANNELS.get(path);
+                if (shared == null) {
+                    shared = new SharedChannel(path, openChannel(lockFile, create));
+                    CHANNELS.put(path, shared);
+                }
+                shared.users++;
+                return shared;
+            }
+        }
+
+        /**
+         * Opens for writing whenever possible, since a reader and a writer may share the channel
+         */
+        private static FileChannel openChannel(File lockFile, boolean create) throws IOException {
+            if (create) {
+                return FileChannel.open(lockFile.toPath(), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            }
+            try {
+                return FileChannel.open(lockFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (AccessDeniedException e) {
+                return FileChannel.open(lockFile.toPath(), StandardOpenOption.READ);
+            }
+        }
+
+        /**
+         * Locks the first free writer slot for this process whose row holds no reservations
+         * left by a dead writer. Called holding the state lock.
+         */
+        void claimWriterSlot(File dataFile) throws IOException {
+            ByteBuffer row = ByteBuffer.allocate(ROW_SIZE);
+            for (int slot = 0; slot < MAX_WRITERS; slot++) {
+                row.clear();
+                while (row.hasRemaining() && channel.read(row, entryOffset(slot, 0) + row.position()) > 0) {
+                    // keep reading until the row is complete
+                }
+                if (!isEmpty(row.flip())) {
+                    continue;
+                }
+                FileLock lock = channel.tryLock(LIVENESS_OFFSET + slot, 1, false);
+                if (lock != null) {
+                    writerSlot = slot;
+                    writerLock = lock;
+                    return;
+                }
+            }
+            throw new IOException("More than " + MAX_WRITERS + " processes are writing " + dataFile);
+        }
+
+        private static boolean isEmpty(ByteBuffer row) {
+            while (row.hasRemaining()) {
+                if (row.get() != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void releaseWriterSlot() throws IOException {
+            if (writerLock != null) {
+                writerLock.release();
+                writerLock = null;
+                writerSlot = -1;
+            }
+        }
+
+        /**
+         * Returns true if the process holding a writer slot is still running
+         */
+        boolean isAlive(int slot) throws IOException {
+            FileLock probe = channel.tryLock(LIVENESS_OFFSET + slot, 1, true);
+            if (probe == null) {
+                return true;
+            }
+            probe.release();
+            return false;
+        }
+
+        /**
+         * Takes the shared files lock for a thread holding files' read lock, unless another
+         * thread of this process already has it
+         */
+        void shareFiles() throws IOException {
+            synchronized (filesMonitor) {
+                if (fileReaders == 0) {
+                    filesLock = channel.lock(FILES_OFFSET, 1, true);
+                }
+                fileReaders++;
+            }
+        }
+
+        void unshareFiles() throws IOException {
+            synchronized (filesMonitor) {
+                if (--fileReaders == 0) {
+                    filesLock.release();
+                    filesLock = null;
+                }
+            }
+        }
+
+        /**
+         * Called holding CHANNELS; closes the channel once nothing in this process uses it
+         */
+        void release() throws IOException {
+            if (--users == 0) {
+                CHANNELS.remove(path);
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,348 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Trigram index over product names for fast substring searches.
+ * Every run of three characters in a lowercased name maps to the records containing it,
+ * so a search only has to check records that contain every trigram of the search term.
+ *
+ * The index is kept beside the data file (ProductData.dat.names) and memory-mapped when opened,
+ * so opening it costs nothing however large the catalog is. File layout: a 24-byte header
+ * (records indexed, trigram count, the store's modified count when the file was written,
+ * posting count), a table of 12-byte (trigram, first posting) entries sorted by trigram, then
+ * the postings: each trigram's record numbers as ints, in ascending order.
+ *
+ * Records appended since the file was written, and names changed through the store, are kept
+ * in memory and merged into the file once there are MERGE_ENTRIES postings, or when the index
+ * is closed. Each writer saves a whole new file and renames it into place, so writers never
+ * interleave their entries. A record whose name changed keeps its old postings too, so callers
+ * must check each candidate. If records were changed in place by another process since the
+ * file was written, it is rebuilt from scratch.
+ */
+public class ProductNameIndex implements Closeable {
+    public static final String FILE_SUFFIX = ".names";
+    public static final int GRAM_SIZE = 3;
+
+    // Postings held in memory before they are merged into the file
+    public static final int MERGE_ENTRIES = 1 << 18;
+
+    private static final int HEADER_SIZE = 24;
+    private static final int MODIFIED_OFFSET = 8;
+    private static final int GRAM_ENTRY_SIZE = 8 + 4;
+
+    private final ProductStore store;
+    private final File indexFile;
+    private final boolean writable;
+    private ByteBuffer entries;
+    private int gramCount;
+    private long postingCount;
+    private int indexedCount;
+    private Map<Long, RecordList> added = new HashMap<>();
+    private int addedCount;
+
+    /**
+     * Opens the name index for a store, loading the index file and indexing any records added since
+     * @param store The product store the index belongs to
+     * @param writable true to save the index file, false to keep everything in memory only
+     * @throws IOException If the index file cannot be read or written
+     */
+    public ProductNameIndex(ProductStore store, boolean writable) throws IOException {
+        this.store = store;
+        this.indexFile = indexFileFor(store.getFile());
+        this.writable = writable;
+
+        if (!load()) {
+            entries = ByteBuffer.allocate(HEADER_SIZE);
+        }
+        update();
+    }
+
+    /**
+     * Returns the index file used for a data file
+     * @param dataFile The product data file
+     * @return The sidecar index file
+     */
+    public static File indexFileFor(File dataFile) {
+        return new File(dataFile.getPath() + FILE_SUFFIX);
+    }
+
+    /**
+     * Sets the modified count an index file is stamped with, for an index built against a copy
+     * of the data file that takes over the copy's records under a new modified count
+     * (see ProductCompactor)
+     * @param indexFile The index file
+     * @param modified The modified count of the data file it now belongs to
+     * @throws IOException If the index file cannot be written
+     */
+    public static void stamp(File indexFile, long modified) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.WRITE)) {
+            ByteBuffer value = ByteBuffer.allocate(8).putLong(0, modified);
+            while (value.hasRemaining()) {
+                channel.write(value, MODIFIED_OFFSET + value.position());
+            }
+        }
+    }
+
+    public int getIndexedCount() {
+        return indexedCount;
+    }
+
+    /**
+     * Indexes any records in the store that are not in the index yet
+     * @throws IOException If the store cannot be read or the index file cannot be written
+     */
+    public void update() throws IOException {
+        if (indexedCount < store.getRecordCount()) {
+            store.visit(indexedCount, store.getRecordCount(), (view, recordNumber) -> addName(recordNumber, view.getName()));
+            indexedCount = store.getRecordCount();
+            if (addedCount >= MERGE_ENTRIES) {
+                merge();
+            }
+        }
+    }
+
+    /**
+     * Adds the name of a record written or changed through the store
+     * @param recordNumber The record number of the product
+     * @param name The product's name
+     */
+    public void add(int recordNumber, String name) {
+        addName(recordNumber, name);
+        indexedCount = Math.max(indexedCount, recordNumber + 1);
+    }
+
+    /**
+     * Returns the records whose names may contain the search term.
+     * Every record containing the term is included, but callers must still check each candidate.
+     * @param term The search term, already lowercased
+     * @return The candidate record numbers, or null if the term is too short to use the index
+     */
+    public RecordList candidates(String term) {
+        if (term.length() < GRAM_SIZE) {
+            return null;
+        }
+
+        RecordList result = null;
+        for (int i = 0; i + GRAM_SIZE <= term.length(); i++) {
+            RecordList records = postings(gram(term, i));
+            result = result == null ? records : result.intersect(records);
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns every record listed for a trigram, from the file and from memory
+     */
+    private RecordList postings(long gram) {
+        int entry = find(gram);
+        long first = entry < 0 ? 0 : firstPosting(entry);
+        long end = entry < 0 ? 0 : firstPosting(entry + 1);
+        RecordList memory = added.get(gram);
+
+        RecordList records = new RecordList((int) (end - first) + (memory == null ? 0 : memory.size()));
+        for (long posting = first; posting < end; posting++) {
+            records.add(entries.getInt(postingPosition(posting)));
+        }
+        if (memory != null) {
+            for (int i = 0; i < memory.size(); i++) {
+                records.add(memory.get(i));
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Finds a trigram's entry in the table
+     * @return The entry number, or -1 if the file has no postings for it
+     */
+    private int find(long gram) {
+        int low = 0;
+        int high = gramCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long found = gramAt(middle);
+            if (found < gram) {
+                low = middle + 1;
+            } else if (found > gram) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private long gramAt(int entry) {
+        return entries.getLong(HEADER_SIZE + entry * GRAM_ENTRY_SIZE);
+    }
+
+    /**
+     * Number of postings before a trigram's; the entry after the last is the posting count
+     */
+    private long firstPosting(int entry) {
+        return entry == gramCount ? postingCount : entries.getInt(HEADER_SIZE + entry * GRAM_ENTRY_SIZE + 8);
+    }
+
+    private int postingPosition(long posting) {
+        return (int) (HEADER_SIZE + (long) gramCount * GRAM_ENTRY_SIZE + posting * 4);
+    }
+
+    private void addName(int recordNumber, CharSequence name) {
+        String lowerName = name.toString().toLowerCase();
+        for (int i = 0; i + GRAM_SIZE <= lowerName.length(); i++) {
+            added.computeIfAbsent(gram(lowerName, i), k -> new RecordList()).add(recordNumber);
+            addedCount++;
+        }
+    }
+
+    /**
+     * Merges the postings held in memory into the file's postings
+     */
+    private void merge() throws IOException {
+        long[] addedGrams = new long[added.size()];
+        int count = 0;
+        for (long gram : added.keySet()) {
+            addedGrams[count++] = gram;
+        }
+        Arrays.sort(addedGrams);
+
+        // Every trigram in either list, in order
+        int grams = gramCount;
+        for (long gram : addedGrams) {
+            if (find(gram) < 0) {
+                grams++;
+            }
+        }
+        long size = HEADER_SIZE + (long) grams * GRAM_ENTRY_SIZE + (postingCount + addedCount) * 4;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Name index is too large: " + indexFile);
+        }
+
+        ByteBuffer merged = ByteBuffer.allocateDirect((int) size);
+        int postingStart = HEADER_SIZE + grams * GRAM_ENTRY_SIZE;
+        int entry = 0;
+        int next = 0;
+        int written = 0;
+        int posting = 0;
+        while (entry < gramCount || next < addedGrams.length) {
+            long gram = next == addedGrams.length || (entry < gramCount && gramAt(entry) <= addedGrams[next])
+                    ? gramAt(entry) : addedGrams[next];
+            merged.putLong(HEADER_SIZE + written * GRAM_ENTRY_SIZE, gram)
+                    .putInt(HEADER_SIZE + written * GRAM_ENTRY_SIZE + 8, posting);
+            written++;
+
+            RecordList records;
+            if (entry < gramCount && gramAt(entry) == gram) {
+                records = postings(gram);
+                entry++;
+            } else {
+                records = added.get(gram);
+            }
+            if (next < addedGrams.length && addedGrams[next] == gram) {
+                next++;
+            }
+            for (int i = 0; i < records.size(); i++) {
+                merged.putInt(postingStart + posting++ * 4, records.get(i));
+            }
+        }
+        replace(merged, grams, posting);
+    }
+
+    /**
+     * Switches to a new set of postings, saving them to the index file if writable
+     */
+    private void replace(ByteBuffer merged, int grams, long postings) throws IOException {
+        merged.putInt(0, indexedCount).putInt(4, grams).putLong(MODIFIED_OFFSET, store.getModificationCount())
+                .putLong(16, postings);
+        added = new HashMap<>();
+        addedCount = 0;
+        gramCount = grams;
+        postingCount = postings;
+        entries = merged;
+
+        if (writable) {
+            // Names repeating a trigram list the record once, so the buffer may have room to spare
+            ProductStore.replaceSidecar(indexFile, store.getFile(), merged.duplicate().clear()
+                    .limit(HEADER_SIZE + grams * GRAM_ENTRY_SIZE + (int) postings * 4));
+        }
+    }
+
+    /**
+     * Maps the index file, if there is one and it matches the store
+     * @return false if the index has to be rebuilt
+     */
+    private boolean load() throws IOException {
+        if (!indexFile.exists() || indexFile.length() < HEADER_SIZE) {
+            return false;
+        }
+
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int grams = mapped.getInt(4);
+            long postings = mapped.getLong(16);
+            if (channel.size() != HEADER_SIZE + (long) grams * GRAM_ENTRY_SIZE + postings * 4
+                    || mapped.getLong(MODIFIED_OFFSET) != store.getModificationCount()
+                    || mapped.getInt(0) > store.getRecordCount()) {
+                return false;
+            }
+            entries = mapped;
+            gramCount = grams;
+            postingCount = postings;
+            indexedCount = mapped.getInt(0);
+            return true;
+        }
+    }
+
+    /**
+     * Packs the three chars starting at index into one key
+     */
+    private static long gram(String str, int index) {
+        return ((long) str.charAt(index) << 32) | ((long) str.charAt(index + 1) << 16) | str.charAt(index + 2);
+    }
+
+    /**
+     * Saves postings added since the index file was written
+     * @throws IOException If the index file cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (writable && addedCount > 0) {
+            merge();
+        }
+    }
+
+    /**
+     * Rebuilds the name index for an existing data file.
+     * Usage: java ProductNameIndex [dataFile] (defaults to ProductData.dat)
+     */
+    public static void main(String[] args) {
+        File dataFile = new File(args.length > 0 ? args[0] : "ProductData.dat");
+        if (!dataFile.exists()) {
+            System.out.println("Product data file not found: " + dataFile);
+            System.exit(1);
+        }
+
+        File indexFile = indexFileFor(dataFile);
+        if (indexFile.exists() && !indexFile.delete()) {
+            System.out.println("Could not delete old index: " + indexFile);
+            System.exit(1);
+        }
+
+        try (ProductStore store = new ProductStore(dataFile, "r");
+             ProductNameIndex index = new ProductNameIndex(store, true)) {
+            System.out.println("Indexed " + index.getIndexedCount() + " record(s) into " + indexFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,410 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Sorted index of product names for prefix searches, such as suggestions while typing.
+ *
+ * The index is kept beside the data file (ProductData.dat.prefix) as a sorted array of
+ * fixed-size (name, record number) entries, ordered by lowercased name, and is memory-mapped
+ * when opened. A prefix lookup is a binary search followed by a short forward scan, so it
+ * takes microseconds however many records there are.
+ *
+ * File layout: a 16-byte header (records indexed, entry count, the store's modified count when
+ * the file was built), then the entries: record number, name length and the name as
+ * NAME_SIZE chars.
+ *
+ * Records appended since the file was written are kept in a small sorted map in memory and
+ * merged into the file once there are MERGE_RECORDS of them, or when the index is closed.
+ * Changing or deleting records in place reorders names, so if the store's modified count no
+ * longer matches the file, the index is rebuilt from scratch.
+ */
+public class ProductPrefixIndex implements Closeable {
+    public static final String FILE_SUFFIX = ".prefix";
+
+    // Appended records held in memory before they are merged into the file
+    public static final int MERGE_RECORDS = 1 << 16;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int NAME_CHARS = Product.NAME_SIZE;
+    private static final int ENTRY_SIZE = 4 + 2 + NAME_CHARS * 2;
+
+    private final ProductStore store;
+    private final File indexFile;
+    private final boolean writable;
+    private ByteBuffer entries;
+    private int entryCount;
+    private int indexedCount;
+    private long modificationCount;
+    // Keyed by sortKey(name), so the map's natural order is the same as the file's
+    private TreeMap<String, RecordList> appended = new TreeMap<>();
+    private int appendedCount;
+
+    /**
+     * Opens the prefix index for a store, loading the index file and indexing any records added since
+     * @param store The product store the index belongs to
+     * @param writable true to save the index file, false to keep everything in memory only
+     * @throws IOException If the index file cannot be read or written
+     */
+    public ProductPrefixIndex(ProductStore store, boolean writable) throws IOException {
+        this.store = store;
+        this.indexFile = indexFileFor(store.getFile());
+        this.writable = writable;
+
+        load();
+        update();
+    }
+
+    /**
+     * Returns the index file used for a data file
+     * @param dataFile The product data file
+     * @return The sidecar index file
+     */
+    public static File indexFileFor(File dataFile) {
+        return new File(dataFile.getPath() + FILE_SUFFIX);
+    }
+
+    public int getIndexedCount() {
+        return indexedCount + appendedCount;
+    }
+
+    /**
+     * Brings the index up to date with the store: indexes records appended since the last
+     * update, or rebuilds it if records were changed in place. Call store.refresh() first to
+     * see other writers' changes.
+     * @throws IOException If the store cannot be read or the index file cannot be written
+     */
+    public void update() throws IOException {
+        if (store.getModificationCount() != modificationCount || store.getRecordCount() < getIndexedCount()) {
+            rebuild();
+            return;
+        }
+
+        int from = getIndexedCount();
+        if (from < store.getRecordCount()) {
+            store.visit(from, store.getRecordCount(), (view, recordNumber) ->
+                    appended.computeIfAbsent(sortKey(view.getName().toString()), key -> new RecordList()).add(recordNumber));
+            appendedCount = store.getRecordCount() - indexedCount;
+            if (appendedCount >= MERGE_RECORDS) {
+                merge();
+            }
+        }
+    }
+
+    /**
+     * Returns the distinct names starting with a prefix (case-insensitive), in sorted order
+     * @param prefix The prefix to look for
+     * @param limit Most names to return
+     * @return The matching names
+     */
+    public List<String> suggest(String prefix, int limit) {
+        List<String> names = new ArrayList<>(limit);
+        int entry = lowerBound(prefix);
+        Iterator<String> more = appended.tailMap(lowerCase(prefix), true).keySet().iterator();
+        String next = more.hasNext() ? nameOf(more.next()) : null;
+
+        while (names.size() < limit) {
+            String fromFile = entry < entryCount ? nameAt(entry) : null;
+            String name;
+            if (fromFile != null && (next == null || compareNames(fromFile, next) <= 0)) {
+                name = fromFile;
+                entry++;
+            } else if (next != null) {
+                name = next;
+                next = more.hasNext() ? nameOf(more.next()) : null;
+            } else {
+                break;
+            }
+
+            if (!startsWithIgnoreCase(name, prefix)) {
+                break;
+            }
+            if (names.isEmpty() || !names.get(names.size() - 1).equals(name)) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Returns every record whose name starts with a prefix (case-insensitive), in record order
+     * @param prefix The prefix to look for
+     * @return The matching record numbers
+     */
+    public RecordList findByPrefix(String prefix) {
+        int[] found = new int[16];
+        int count = 0;
+        for (int entry = lowerBound(prefix); entry < entryCount && startsWithIgnoreCase(nameAt(entry), prefix); entry++) {
+            if (count == found.length) {
+                found = Arrays.copyOf(found, count * 2);
+            }
+            found[count++] = entries.getInt(HEADER_SIZE + entry * ENTRY_SIZE);
+        }
+        for (Map.Entry<String, RecordList> names : appended.tailMap(lowerCase(prefix), true).entrySet()) {
+            if (!startsWithIgnoreCase(nameOf(names.getKey()), prefix)) {
+                break;
+            }
+            for (int i = 0; i < names.getValue().size(); i++) {
+                if (count == found.length) {
+                    found = Arrays.copyOf(found, count * 2);
+                }
+                found[count++] = names.getValue().get(i);
+            }
+        }
+
+        // Sorted first, so every add goes on the end of the list
+        Arrays.sort(found, 0, count);
+        RecordList records = new RecordList(count);
+        for (int i = 0; i < count; i++) {
+            records.add(found[i]);
+        }
+        return records;
+    }
+
+    /**
+     * Finds the first entry in the file whose name is not before the prefix
+     */
+    private int lowerBound(String prefix) {
+        int low = 0;
+        int high = entryCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareNameAt(middle, prefix) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compares an entry's name with a string in name order, without decoding the entry
+     */
+    private int compareNameAt(int entry, String str) {
+        int base = HEADER_SIZE + entry * ENTRY_SIZE;
+        int length = entries.getShort(base + 4);
+        int common = Math.min(length, str.length());
+        for (int i = 0; i < common; i++) {
+            char a = Character.toLowerCase(entries.getChar(base + 6 + i * 2));
+            char b = Character.toLowerCase(str.charAt(i));
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return length - str.length();
+    }
+
+    private String nameAt(int entry) {
+        int base = HEADER_SIZE + entry * ENTRY_SIZE;
+        char[] name = new char[entries.getShort(base + 4)];
+        for (int i = 0; i < name.length; i++) {
+            name[i] = entries.getChar(base + 6 + i * 2);
+        }
+        return new String(name);
+    }
+
+    /**
+     * Sorts every record in the store into a new index
+     */
+    private void rebuild() throws IOException {
+        modificationCount = store.getModificationCount();
+        int recordCount = store.getRecordCount();
+        String[] names = new String[recordCount];
+        store.visit(0, recordCount, (view, recordNumber) -> names[recordNumber] = view.getName().toString());
+
+        // Deleted records have no name and are left out
+        Integer[] order = new Integer[recordCount];
+        int live = 0;
+        for (int i = 0; i < recordCount; i++) {
+            if (names[i] != null) {
+                order[live++] = i;
+            }
+        }
+        Arrays.parallelSort(order, 0, live, (a, b) -> {
+            int result = compareNames(names[a], names[b]);
+            return result != 0 ? result : Integer.compare(a, b);
+        });
+
+        ByteBuffer sorted = ByteBuffer.allocateDirect(HEADER_SIZE + live * ENTRY_SIZE);
+        for (int i = 0; i < live; i++) {
+            putEntry(sorted, i, order[i], names[order[i]]);
+        }
+        replace(sorted, live, recordCount);
+    }
+
+    /**
+     * Merges the appended records into the sorted entries
+     */
+    private void merge() throws IOException {
+        int total = entryCount;
+        for (RecordList records : appended.values()) {
+            total += records.size();
+        }
+
+        ByteBuffer merged = ByteBuffer.allocateDirect(HEADER_SIZE + total * ENTRY_SIZE);
+        int entry = 0;
+        int written = 0;
+        for (Map.Entry<String, RecordList> names : appended.entrySet()) {
+            String name = nameOf(names.getKey());
+            while (entry < entryCount && compareNames(nameAt(entry), name) <= 0) {
+                copyEntry(entry++, merged, written++);
+            }
+            for (int i = 0; i < names.getValue().size(); i++) {
+                putEntry(merged, written++, names.getValue().get(i), name);
+            }
+        }
+        while (entry < entryCount) {
+            copyEntry(entry++, merged, written++);
+        }
+        replace(merged, total, indexedCount + appendedCount);
+    }
+
+    /**
+     * Switches to a new set of sorted entries, saving them to the index file if writable
+     */
+    private void replace(ByteBuffer sorted, int count, int records) throws IOException {
+        sorted.putInt(0, records).putInt(4, count).putLong(8, modificationCount);
+        appended = new TreeMap<>();
+        appendedCount = 0;
+        indexedCount = records;
+        entryCount = count;
+        entries = sorted;
+
+        if (writable) {
+            ProductStore.replaceSidecar(indexFile, store.getFile(), sorted.duplicate().clear());
+        }
+    }
+
+    /**
+     * Maps the index file, if there is one
+     */
+    private void load() throws IOException {
+        modificationCount = -1;
+        if (!indexFile.exists() || indexFile.length() < HEADER_SIZE) {
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int count = mapped.getInt(4);
+            if (channel.size() < HEADER_SIZE + (long) count * ENTRY_SIZE) {
+                return; // Not written completely; rebuilt by update()
+            }
+            entries = mapped;
+            entryCount = count;
+            indexedCount = mapped.getInt(0);
+            modificationCount = mapped.getLong(8);
+        }
+    }
+
+    private static void putEntry(ByteBuffer buf, int entry, int recordNumber, String name) {
+        int base = HEADER_SIZE + entry * ENTRY_SIZE;
+        int length = Math.min(name.length(), NAME_CHARS);
+        buf.putInt(base, recordNumber).putShort(base + 4, (short) length);
+        for (int i = 0; i < length; i++) {
+            buf.putChar(base + 6 + i * 2, name.charAt(i));
+        }
+    }
+
+    private void copyEntry(int entry, ByteBuffer target, int targetEntry) {
+        ByteBuffer source = entries.duplicate();
+        source.limit(HEADER_SIZE + (entry + 1) * ENTRY_SIZE).position(HEADER_SIZE + entry * ENTRY_SIZE);
+        target.put(HEADER_SIZE + targetEntry * ENTRY_SIZE, source, source.position(), ENTRY_SIZE);
+    }
+
+    /**
+     * Orders names by their lowercased chars, then exactly, so equal names stay together
+     */
+    private static int compareNames(String a, String b) {
+        int common = Math.min(a.length(), b.length());
+        for (int i = 0; i < common; i++) {
+            char x = Character.toLowerCase(a.charAt(i));
+            char y = Character.toLowerCase(b.charAt(i));
+            if (x != y) {
+                return x - y;
+            }
+        }
+        return a.length() != b.length() ? a.length() - b.length() : a.compareTo(b);
+    }
+
+    private static boolean startsWithIgnoreCase(String name, String prefix) {
+        if (name.length() < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (Character.toLowerCase(name.charAt(i)) != Character.toLowerCase(prefix.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lowercases one char at a time, the same way names are compared
+     */
+    private static String lowerCase(String str) {
+        char[] chars = new char[str.length()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(str.charAt(i));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Key for the appended map: the lowercased name, a NUL, then the name itself.
+     * Sorting these keys as plain strings gives the same order as compareNames.
+     */
+    private static String sortKey(String name) {
+        return lowerCase(name) + '\0' + name;
+    }
+
+    private static String nameOf(String sortKey) {
+        return sortKey.substring(sortKey.indexOf('\0') + 1);
+    }
+
+    /**
+     * Saves records appended since the index file was written
+     * @throws IOException If the index file cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (writable && appendedCount > 0) {
+            merge();
+        }
+    }
+
+    /**
+     * Rebuilds the prefix index for an existing data file.
+     * Usage: java ProductPrefixIndex [dataFile] (defaults to ProductData.dat)
+     */
+    public static void main(String[] args) {
+        File dataFile = new File(args.length > 0 ? args[0] : "ProductData.dat");
+        if (!dataFile.exists()) {
+            System.out.println("Product data file not found: " + dataFile);
+            System.exit(1);
+        }
+
+        File indexFile = indexFileFor(dataFile);
+        if (indexFile.exists() && !indexFile.delete()) {
+            System.out.println("Could not delete old index: " + indexFile);
+            System.exit(1);
+        }
+
+        try (ProductStore store = new ProductStore(dataFile, "r");
+             ProductPrefixIndex index = new ProductPrefixIndex(store, true)) {
+            System.out.println("Indexed " + index.getIndexedCount() + " record(s) into " + indexFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
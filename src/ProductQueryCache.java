@@ -0,0 +1,196 @@
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the matching record numbers of recent name searches over a ProductCatalogCache.
+ *
+ * Entries are keyed by the normalized search term and also record how many records had been
+ * searched. When records are appended to the catalog, an entry is brought up to date by
+ * searching only the new records, instead of being thrown away. Entries are dropped when the
+ * catalog is reloaded (records changed or deleted in place, or the file was compacted), when
+ * they are older than the time to live, and least recently used first once there are too many
+ * entries or they hold too many record numbers between them.
+ */
+public class ProductQueryCache {
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+    public static final int DEFAULT_MAX_RECORDS = 4 * 1024 * 1024; // 16 MB of record numbers
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    private final ProductCatalogCache catalog;
+    private final int maxEntries;
+    private final int maxRecords;
+    private final long ttlNanos;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private int cachedRecords;
+
+    /**
+     * Creates a query cache with the default limits
+     * @param catalog The catalog searches are run against
+     */
+    public ProductQueryCache(ProductCatalogCache catalog) {
+        this(catalog, DEFAULT_MAX_ENTRIES, DEFAULT_MAX_RECORDS, DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * Creates a query cache
+     * @param catalog The catalog searches are run against
+     * @param maxEntries Most search terms to remember
+     * @param maxRecords Most record numbers to hold across all entries
+     * @param ttlMillis How long an entry is kept after it is first created
+     */
+    public ProductQueryCache(ProductCatalogCache catalog, int maxEntries, int maxRecords, long ttlMillis) {
+        this.catalog = catalog;
+        this.maxEntries = maxEntries;
+        this.maxRecords = maxRecords;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    /**
+     * Returns the key a search term is cached under
+     * @param term The search term as entered
+     * @return The term trimmed and lowercased
+     */
+    public static String normalize(String term) {
+        return term.trim().toLowerCase();
+    }
+
+    /**
+     * Finds the records whose name contains the search term among every record in the catalog
+     * (see ProductCatalogCache.findByName), searching only records not covered by the cache
+     * @param term The search term
+     * @return The matching record numbers, in order
+     * @throws IOException If the name index cannot be read
+     */
+    public synchronized RecordList findByName(String term) throws IOException {
+        extend(term, catalog.size());
+        return getCached(term);
+    }
+
+    /**
+     * Returns the records already known to match a search term
+     * @param term The search term
+     * @return A copy of the cached matches, empty if the term is not cached
+     */
+    public synchronized RecordList getCached(String term) {
+        Entry entry = validEntry(normalize(term), true);
+        RecordList copy = new RecordList(entry == null ? 1 : entry.matches.size());
+        if (entry != null) {
+            for (int i = 0; i < entry.matches.size(); i++) {
+                copy.add(entry.matches.get(i));
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Returns how many records the cached matches for a search term cover
+     * @param term The search term
+     * @return The number of records searched so far, or 0 if the term is not cached
+     */
+    public synchronized int getSearchedCount(String term) {
+        Entry entry = validEntry(normalize(term), true);
+        return entry == null ? 0 : entry.searched;
+    }
+
+    /**
+     * Searches the records after the cached ones, up to a record number, and caches the matches.
+     * The catalog must already hold those records.
+     * @param term The search term
+     * @param to Record number to search up to (exclusive)
+     * @return Just the new matches, in order
+     * @throws IOException If the name index cannot be read
+     */
+    public synchronized RecordList extend(String term, int to) throws IOException {
+        return extend(term, to, nameCandidates(term));
+    }
+
+    /**
+     * Looks up a search term in the name index, once for a search extended block by block
+     * (see ProductCatalogCache.nameCandidates)
+     * @param term The search term
+     * @return The candidate record numbers, or null if every record has to be checked
+     * @throws IOException If the name index cannot be read
+     */
+    public RecordList nameCandidates(String term) throws IOException {
+        return catalog.nameCandidates(normalize(term));
+    }
+
+    /**
+     * Searches the records after the cached ones, up to a record number, checking only the
+     * candidates already taken from the name index, and caches the matches
+     * @param term The search term
+     * @param to Record number to search up to (exclusive)
+     * @param candidates The term's nameCandidates, or null to check every record
+     * @return Just the new matches, in order
+     */
+    public synchronized RecordList extend(String term, int to, RecordList candidates) {
+        String key = normalize(term);
+        // Age is only checked when cached matches are read, so a search in progress keeps its entry
+        Entry entry = validEntry(key, false);
+        if (entry == null) {
+            entry = new Entry(catalog.getModificationCount());
+            entries.put(key, entry);
+        }
+
+        to = Math.min(to, catalog.size());
+        RecordList found = catalog.findByName(key, entry.searched, to, candidates);
+        for (int i = 0; i < found.size(); i++) {
+            entry.matches.add(found.get(i));
+        }
+        entry.searched = Math.max(entry.searched, to);
+        cachedRecords += found.size();
+        evict();
+        return found;
+    }
+
+    /**
+     * Drops every entry
+     */
+    public synchronized void clear() {
+        entries.clear();
+        cachedRecords = 0;
+    }
+
+    /**
+     * Returns the entry for a key if it still matches the catalog, dropping it otherwise
+     */
+    private Entry validEntry(String key, boolean checkAge) {
+        Entry entry = entries.get(key);
+        if (entry != null && (entry.modificationCount != catalog.getModificationCount()
+                || entry.searched > catalog.size() || (checkAge && System.nanoTime() - entry.created > ttlNanos))) {
+            entries.remove(key);
+            cachedRecords -= entry.matches.size();
+            entry = null;
+        }
+        return entry;
+    }
+
+    /**
+     * Drops least recently used entries until the cache is within its limits.
+     * The most recently used entry is always kept, however large.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (entries.size() > 1 && (entries.size() > maxEntries || cachedRecords > maxRecords)) {
+            cachedRecords -= eldest.next().getValue().matches.size();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * The matches for one search term
+     */
+    private static class Entry {
+        final long modificationCount;
+        final long created = System.nanoTime();
+        final RecordList matches = new RecordList();
+        int searched;
+
+        Entry(long modificationCount) {
+            this.modificationCount = modificationCount;
+        }
+    }
+}
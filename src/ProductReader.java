@@ -2,7 +2,6 @@ import javax.swing.*;
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
 
 import static java.nio.file.StandardOpenOption.CREATE;
 
@@ -12,15 +11,6 @@ public class ProductReader
     {
         JFileChooser chooser = new JFileChooser();
         File selectedFile;
-        String rec = "";
-        // Changed from ArrayList<String> to ArrayList<Product>
-        ArrayList<Product> products = new ArrayList<>();
-
-        final int FIELDS_LENGTH = 4;
-
-        String id, name, description;
-        double cost;
-
         System.out.print("\nChoose a file to be read");
 
         try
@@ -42,45 +32,28 @@ public class ProductReader
                 BufferedReader reader =
                         new BufferedReader(new InputStreamReader(in));
 
-                while(reader.ready())
-                {
-                    rec = reader.readLine();
-
-                    // Split the line into fields and create Product object
-                    String[] fields = rec.split(",");
-
-                    if(fields.length == FIELDS_LENGTH)
-                    {
-                        id          = fields[0].trim();
-                        name        = fields[1].trim();
-                        description = fields[2].trim();
-                        cost        = Double.parseDouble(fields[3].trim());
-
-                        // Create a Product object and add to ArrayList
-                        Product product = new Product(name, description, id, cost);
-                        products.add(product);
-                    }
-                    else
-                    {
-                        System.out.println("Found a record that may be corrupt: ");
-                        System.out.println(rec);
-                    }
-                }
-                reader.close(); // must close the file to seal it and flush buffer
-                System.out.println("\n\nData file read!");
-
-                // Now display the products from the ArrayList using Product objects
+                // Print the header first, then each product as soon as it is read,
+                // so only one record is held in memory at a time
                 System.out.printf("\n%-8s%-20s%-30s%-6s", "ID#", "Name", "Description", "Cost");
                 System.out.print("\n===================================================================");
 
-                for(Product product : products)
+                ProductCsvSource products = new ProductCsvSource(reader, corrupt ->
                 {
+                    System.out.println("\nFound a record that may be corrupt: ");
+                    System.out.println(corrupt);
+                });
+
+                while(products.hasNext())
+                {
+                    Product product = products.next();
                     System.out.printf("\n%-8s%-20s%-30s%-6.2f",
                             product.getID(),
                             product.getName(),
                             product.getDescription(),
                             product.getCost());
                 }
+                products.close(); // must close the file to seal it and flush buffer
+                System.out.println("\n\nData file read!");
             }
             else  // user closed the file dialog without choosing
             {
@@ -94,7 +67,7 @@ public class ProductReader
             System.out.println("File not found!!!");
             e.printStackTrace();
         }
-        catch (IOException e)
+        catch (IOException | UncheckedIOException e)
         {
             e.printStackTrace();
         }
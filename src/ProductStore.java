@@ -0,0 +1,1057 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntPredicate;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Memory-mapped access to a Product Random Access File.
+ * Records are decoded straight from mapped chunks of the file instead of being read
+ * one char at a time through RandomAccessFile. The record layout (see ProductFormat) is
+ * detected when the file is opened, so original Product.writeToRandomFile files and
+ * compact V2 files are both read unchanged.
+ *
+ * Records can be changed in place, one field at a time, and deleted. A deleted record stays in
+ * the file as a tombstone that reads and scans skip, and its slot is reused by the next append.
+ * ProductCompactor removes tombstones by replacing the file with a compacted copy; open stores
+ * notice the new generation on their next refresh and reopen the file.
+ */
+public class ProductStore implements Closeable {
+    // Each mapped chunk holds a whole number of records so no record spans two chunks
+    public static final int CHUNK_RECORDS = 1 << 18; // 262,144 records = 60 MB for V1
+
+    // Full-file scans read this many records per I/O call (just under 4 MB)
+    public static final int SCAN_BATCH_RECORDS = (4 * 1024 * 1024) / Product.RECORD_SIZE;
+
+    // A cost range matching more than 1 in this many records is scanned rather than read record by record
+    private static final int COST_SCAN_FRACTION = 16;
+
+    private final File file;
+    private FileChannel channel;
+    private final boolean writable;
+    private final ProductFormat format;
+    private final int recordSize;
+    private final List<MappedByteBuffer> chunks = new ArrayList<>();
+    private final ByteBuffer writeBuffer;
+    private ByteBuffer scanBuffer;
+    private ByteBuffer batchBuffer;
+    private ProductNameIndex nameIndex;
+    private ProductIdIndex idIndex;
+    private ProductCostIndex costIndex;
+    private ProductZoneMap zoneMap;
+    private ProductIdFilter idFilter;
+    private ProductLockFile lockFile;
+    private int recordCount;
+    private long modificationCount;
+    private long generation;
+
+    /**
+     * Opens a product data file, creating new files in the original V1 layout
+     * @param file The data file
+     * @param mode "r" for read-only or "rw" for read/write (creates the file if needed)
+     * @throws IOException If the file cannot be opened
+     */
+    public ProductStore(File file, String mode) throws IOException {
+        this(file, mode, ProductFormat.V1);
+    }
+
+    /**
+     * Opens a product data file
+     * @param file The data file
+     * @param mode "r" for read-only or "rw" for read/write (creates the file if needed)
+     * @param newFileFormat The layout to use if the file is new; existing files keep their own
+     * @throws IOException If the file cannot be opened
+     */
+    public ProductStore(File file, String mode, ProductFormat newFileFormat) throws IOException {
+        if (!mode.equals("r") && !mode.equals("rw")) {
+            throw new IllegalArgumentException("Mode must be \"r\" or \"rw\": " + mode);
+        }
+        this.file = file;
+        this.writable = mode.equals("rw");
+        // Read before opening, so a compaction finishing in between shows up as a new generation
+        generation = ProductLockFile.generationOf(file);
+        channel = openChannel();
+
+        if (channel.size() == 0 && writable) {
+            format = newFileFormat;
+            writeFully(format.header(0), 0);
+        } else {
+            format = ProductFormat.detect(channel);
+        }
+        recordSize = format.recordSize();
+        writeBuffer = ByteBuffer.allocate(recordSize);
+        refresh();
+
+        // Writers always coordinate through the lock file; readers follow it once one exists
+        if (writable) {
+            lockFile = new ProductLockFile(this, true);
+            refresh();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    public ProductFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Returns how many times records have been changed in place, as of the last refresh.
+     * Anything cached from the store is out of date once this changes.
+     * @return The modified count from the lock file (0 if there is none)
+     */
+    public long getModificationCount() {
+        return modificationCount;
+    }
+
+    /**
+     * Returns how many times the file had been compacted when this store last opened it
+     * @return The generation of the open data file
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Returns the name index, opening it on first use.
+     * Once open, it is kept up to date by every write through this store.
+     * @return The name index
+     * @throws IOException If the index cannot be opened
+     */
+    public ProductNameIndex getNameIndex() throws IOException {
+        if (nameIndex == null) {
+            nameIndex = openIndex(() -> new ProductNameIndex(this, writable));
+        }
+        return nameIndex;
+    }
+
+    /**
+     * Returns the ID index, opening it on first use.
+     * Once open, it is kept up to date by every write through this store.
+     * @return The ID index
+     * @throws IOException If the index cannot be opened
+     */
+    public ProductIdIndex getIdIndex() throws IOException {
+        if (idIndex == null) {
+            idIndex = openIndex(() -> new ProductIdIndex(this, writable));
+        }
+        return idIndex;
+    }
+
+    /**
+     * Returns the cost index, opening it on first use.
+     * Once open, it is kept up to date by every write through this store. It is not opened
+     * before records are changed in place, as the name and ID indexes are; a cost index that
+     * missed a change is rebuilt when next opened instead.
+     * @return The cost index
+     * @throws IOException If the index cannot be opened
+     */
+    public ProductCostIndex getCostIndex() throws IOException {
+        if (costIndex == null) {
+            costIndex = openIndex(() -> new ProductCostIndex(this, writable));
+        }
+        return costIndex;
+    }
+
+    /**
+     * Returns the zone map, opening it on first use.
+     * Like the cost index, it is kept up to date by every write through this store once open,
+     * and is rebuilt when next opened if it missed a change.
+     * @return The zone map
+     * @throws IOException If the zone map cannot be opened
+     */
+    public ProductZoneMap getZoneMap() throws IOException {
+        if (zoneMap == null) {
+            zoneMap = openIndex(() -> new ProductZoneMap(this, writable));
+        }
+        return zoneMap;
+    }
+
+    /**
+     * Returns the ID filter, opening it on first use.
+     * Like the cost index, it is kept up to date by every write through this store once open,
+     * and is rebuilt when next opened if it missed a change.
+     * @return The ID filter
+     * @throws IOException If the filter cannot be opened
+     */
+    public ProductIdFilter getIdFilter() throws IOException {
+        if (idFilter == null) {
+            idFilter = openIndex(() -> new ProductIdFilter(this, writable));
+        }
+        return idFilter;
+    }
+
+    /**
+     * Opens an index while the data file cannot be replaced by compaction, so that the index
+     * files read belong to the data file open here. If the file was compacted since the last
+     * refresh, the old file's index files are gone, so the store refreshes onto the new file first.
+     * Writes name the generation they started with, so this cannot move a write onto the new file.
+     */
+    private <T> T openIndex(ProductLockFile.GenerationReader<T> opener) throws IOException {
+        if (lockFile == null) {
+            return opener.read();
+        }
+        while (true) {
+            T index = lockFile.readGeneration(generation, opener);
+            if (index != null) {
+                return index;
+            }
+            refresh();
+        }
+    }
+
+    private FileChannel openChannel() throws IOException {
+        if (writable) {
+            return FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        }
+        return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+
+    /**
+     * Picks up records appended to the file by another process.
+     * Only records committed in the lock file (see ProductLockFile) are counted, so a record
+     * that is still being written, or a gap left by a slower writer, is never seen. Files without
+     * a lock file count whole records, up to the count in a V2 header.
+     * If the file was compacted since the last refresh, the new file is opened in its place.
+     * Scans and reads see the same records until the next refresh, however many are appended.
+     * @return The new record count
+     * @throws IOException If an I/O error occurs
+     */
+    public int refresh() throws IOException {
+        if (lockFile == null && !writable && ProductLockFile.lockFileFor(file).exists()) {
+            lockFile = new ProductLockFile(this, false);
+        }
+
+        long modified = 0;
+        long committed = -1;
+        if (lockFile != null) {
+            // The counts are read between two reads of the generation, so counts that already
+            // belong to a compacted file are never taken for counts of the file open now
+            long currentGeneration;
+            do {
+                currentGeneration = lockFile.getGeneration();
+                if (currentGeneration > generation) {
+                    reopen(currentGeneration);
+                }
+                modified = Math.max(lockFile.getModificationCount(), 0);
+                committed = lockFile.getCommittedCount();
+            } while (lockFile.getGeneration() != currentGeneration);
+        }
+
+        long count = fileRecordCount();
+        if (lockFile != null) {
+            if (modified != modificationCount) {
+                // Another writer changed records in place; reload the indexes when next used.
+                // Closed first, so an index saved on close is stamped with the count it reflects
+                closeIndexes();
+                modificationCount = modified;
+            }
+
+            if (committed >= 0) {
+                count = Math.min(count, committed);
+            }
+        } else if (format.headerSize() > 0) {
+            ByteBuffer header = ByteBuffer.allocate(8);
+            channel.read(header, ProductFormat.V2_COUNT_OFFSET);
+            count = Math.min(count, header.getLong(0));
+        }
+        recordCount = (int) Math.max(count, 0);
+        return recordCount;
+    }
+
+    /**
+     * Switches to the data file that replaced the one open now. Mapped chunks and indexes
+     * belong to the old file, so they are dropped and rebuilt from the new one when next used.
+     */
+    private void reopen(long newGeneration) throws IOException {
+        closeIndexes();
+        chunks.clear();
+        channel.close();
+        generation = newGeneration;
+        channel = openChannel();
+    }
+
+    /**
+     * Called when the lock file refused a write because the file was compacted
+     * @return The exception to throw, since the caller's record number is no longer valid
+     */
+    private IOException compacted(int recordNumber) throws IOException {
+        refresh();
+        return new IOException("Product file was compacted; record " + recordNumber + " has moved");
+    }
+
+    /**
+     * Reads a Product by record number
+     * @param recordNumber The record number (0-based)
+     * @return The Product, or null if the record is past the end of file or deleted
+     * @throws IOException If an I/O error occurs
+     */
+    public Product read(int recordNumber) throws IOException {
+        if (recordNumber < 0 || recordNumber >= recordCount) {
+            return null;
+        }
+        ByteBuffer chunk = chunkFor(recordNumber);
+        if (format.isDeleted(chunk, chunkOffset(recordNumber))) {
+            return null;
+        }
+        return format.decode(chunk, chunkOffset(recordNumber));
+    }
+
+    /**
+     * Appends a Product, reusing the slot of a deleted record if there is one.
+     * Otherwise its slot is reserved at the end of the file through the lock file, so other
+     * writers may append at the same time.
+     * @param product The product to write
+     * @return The record number the product was written to
+     * @throws IOException If an I/O error occurs
+     */
+    public int append(Product product) throws IOException {
+        int reused = appendToFreeSlot(product);
+        if (reused >= 0) {
+            return reused;
+        }
+
+        checkWritable();
+        writeBuffer.clear();
+        format.encode(product, writeBuffer, 0);
+
+        long recordNumber;
+        while ((recordNumber = lockFile.reserve(1, fileRecordCount(), generation)) < 0) {
+            refresh();
+        }
+        int slot = (int) recordNumber;
+        lockFile.write(recordNumber, recordNumber + 1, () -> writeFully(writeBuffer, recordPosition(slot)),
+                channel, format);
+        refresh();
+        updateIndexes();
+        return (int) recordNumber;
+    }
+
+    /**
+     * Writes a Product into the slot of a deleted record, if there is one
+     * @param product The product to write
+     * @return The record number the product was written to, or -1 if there are no free slots
+     * @throws IOException If an I/O error occurs
+     */
+    public int appendToFreeSlot(Product product) throws IOException {
+        checkWritable();
+        refresh();
+        if (lockFile.getFreeSlotCount() == 0) {
+            return -1;
+        }
+
+        prepareIndexes();
+        writeBuffer.clear();
+        format.encode(product, writeBuffer, 0);
+        int recordNumber = lockFile.reuseFreeSlot(generation, slot -> {
+            // Skip slots that were written over with write() after the delete
+            if (slot >= recordCount || read(slot) != null) {
+                return false;
+            }
+            writeFully(writeBuffer, recordPosition(slot));
+            return true;
+        });
+        if (recordNumber < 0) {
+            // No usable slot, or the file was compacted and its free list emptied
+            refresh();
+            return -1;
+        }
+
+        modificationCount++;
+        indexRecord(recordNumber, product);
+        return recordNumber;
+    }
+
+    /**
+     * Appends a batch of Products with a single write.
+     * The batch always goes at the end of the file; deleted slots are only reused by append().
+     * @param products The products to write, in order
+     * @return The record number the first product was written to
+     * @throws IOException If an I/O error occurs
+     */
+    public int appendAll(List<Product> products) throws IOException {
+        checkWritable();
+        int batchBytes = products.size() * recordSize;
+        // Reuse one direct buffer across batches so bulk loads do not allocate per call
+        if (batchBuffer == null || batchBuffer.capacity() < batchBytes) {
+            batchBuffer = ByteBuffer.allocateDirect(batchBytes);
+        }
+        batchBuffer.clear().limit(batchBytes);
+        for (int i = 0; i < products.size(); i++) {
+            format.encode(products.get(i), batchBuffer, i * recordSize);
+        }
+
+        long firstRecord;
+        while ((firstRecord = lockFile.reserve(products.size(), fileRecordCount(), generation)) < 0) {
+            refresh();
+        }
+        int first = (int) firstRecord;
+        lockFile.write(firstRecord, firstRecord + products.size(), () -> writeFully(batchBuffer, recordPosition(first)),
+                channel, format);
+        refresh();
+        updateIndexes();
+        return (int) firstRecord;
+    }
+
+    /**
+     * Writes a Product over an existing record
+     * @param recordNumber The record number (0-based)
+     * @param product The product to write
+     * @throws IOException If an I/O error occurs
+     */
+    public void write(int recordNumber, Product product) throws IOException {
+        checkWritable();
+        long fileGeneration = generation;
+        if (recordNumber < 0 || recordNumber >= recordCount) {
+            throw new IllegalArgumentException("Record number out of range: " + recordNumber);
+        }
+        if (!update(recordNumber, product)) {
+            // A deleted slot is simply written over; it stays on the free list until reused
+            prepareIndexes();
+            writeBuffer.clear();
+            format.encode(product, writeBuffer, 0);
+            long modified = lockFile.modify(fileGeneration, () -> writeFully(writeBuffer, recordPosition(recordNumber)));
+            if (modified < 0) {
+                throw compacted(recordNumber);
+            }
+            changedInPlace(modified);
+            indexRecord(recordNumber, product);
+        }
+    }
+
+    /**
+     * Changes a record in place. Only the fields whose bytes differ are written back.
+     * @param recordNumber The record number (0-based)
+     * @param product The new values for the record
+     * @return true if the record was updated, false if there is no such record or it is deleted
+     * @throws IOException If an I/O error occurs
+     */
+    public boolean update(int recordNumber, Product product) throws IOException {
+        checkWritable();
+        long fileGeneration = generation;
+        Product old = read(recordNumber);
+        if (old == null) {
+            return false;
+        }
+
+        ByteBuffer chunk = chunkFor(recordNumber);
+        int recordOffset = chunkOffset(recordNumber);
+        writeBuffer.clear();
+        format.encode(product, writeBuffer, 0);
+
+        List<ProductFormat.Field> changed = new ArrayList<>();
+        for (ProductFormat.Field field : ProductFormat.Field.values()) {
+            int offset = format.fieldOffset(field);
+            int size = format.fieldSize(field);
+            if (!writeBuffer.slice(offset, size).equals(chunk.slice(recordOffset + offset, size))) {
+                changed.add(field);
+            }
+        }
+        if (changed.isEmpty()) {
+            return true;
+        }
+
+        prepareIndexes();
+        long modified = lockFile.modify(fileGeneration, () -> {
+            for (ProductFormat.Field field : changed) {
+                int offset = format.fieldOffset(field);
+                writeFully(writeBuffer.slice(offset, format.fieldSize(field)), recordPosition(recordNumber) + offset);
+            }
+        });
+        if (modified < 0) {
+            throw compacted(recordNumber);
+        }
+        changedInPlace(modified);
+        Product written = read(recordNumber);
+        if (nameIndex != null && !written.getName().equals(old.getName())) {
+            nameIndex.add(recordNumber, written.getName());
+        }
+        if (!written.getID().equals(old.getID())) {
+            idIndex.remove(old.getID(), recordNumber);
+            idIndex.put(written.getID(), recordNumber);
+            if (idFilter != null) {
+                idFilter.add(recordNumber, written.getID());
+            }
+        }
+        if (costIndex != null && Double.compare(written.getCost(), old.getCost()) != 0) {
+            costIndex.add(recordNumber, written.getCost());
+        }
+        if (zoneMap != null) {
+            zoneMap.add(recordNumber, written);
+        }
+        return true;
+    }
+
+    /**
+     * Changes the record with the given ID in place (see update)
+     * @param id The product ID of the record to change
+     * @param product The new values for the record (its ID may differ)
+     * @return true if the record was updated, false if no record has that ID
+     * @throws IOException If an I/O error occurs
+     */
+    public boolean updateById(String id, Product product) throws IOException {
+        while (true) {
+            long before = generation;
+            int recordNumber = findRecordById(id);
+            try {
+                return recordNumber >= 0 && update(recordNumber, product);
+            } catch (IOException e) {
+                // Look the ID up again if the file was compacted under us
+                if (generation == before) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes a record by overwriting its ID with a tombstone and adding its slot to the free list
+     * @param recordNumber The record number (0-based)
+     * @return true if the record was deleted, false if there is no such record or it is already deleted
+     * @throws IOException If an I/O error occurs
+     */
+    public boolean delete(int recordNumber) throws IOException {
+        checkWritable();
+        long fileGeneration = generation;
+        Product old = read(recordNumber);
+        if (old == null) {
+            return false;
+        }
+
+        prepareIndexes();
+        int idOffset = format.fieldOffset(ProductFormat.Field.ID);
+        long modified = lockFile.freeSlot(fileGeneration, recordNumber, () ->
+                writeFully(ByteBuffer.allocate(format.fieldSize(ProductFormat.Field.ID)),
+                        recordPosition(recordNumber) + idOffset));
+        if (modified < 0) {
+            throw compacted(recordNumber);
+        }
+        changedInPlace(modified);
+        idIndex.remove(old.getID(), recordNumber);
+        return true;
+    }
+
+    /**
+     * Deletes the record with the given ID (see delete)
+     * @param id The product ID of the record to delete
+     * @return true if the record was deleted, false if no record has that ID
+     * @throws IOException If an I/O error occurs
+     */
+    public boolean deleteById(String id) throws IOException {
+        while (true) {
+            long before = generation;
+            int recordNumber = findRecordById(id);
+            try {
+                return recordNumber >= 0 && delete(recordNumber);
+            } catch (IOException e) {
+                // Look the ID up again if the file was compacted under us
+                if (generation == before) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens the name and ID indexes and brings them up to date before a record is changed in
+     * place, since the ID index would otherwise never learn of the change, and a name index file
+     * that missed it would have to be rebuilt when next opened
+     */
+    private void prepareIndexes() throws IOException {
+        getNameIndex().update();
+        getIdIndex().update();
+    }
+
+    /**
+     * Takes the modified count after a record was changed in place through this store.
+     * If another writer changed records in between, the name index, cost index, zone map and
+     * ID filter (which, unlike the ID index, share nothing with other writers until they are
+     * saved) have missed that change, so they are closed while their files are still stamped
+     * with the count they reflect.
+     */
+    private void changedInPlace(long modified) throws IOException {
+        if (modified != modificationCount + 1) {
+            if (nameIndex != null) {
+                nameIndex.close();
+                nameIndex = null;
+            }
+            if (costIndex != null) {
+                costIndex.close();
+                costIndex = null;
+            }
+            if (zoneMap != null) {
+                zoneMap.close();
+                zoneMap = null;
+            }
+            if (idFilter != null) {
+                idFilter.close();
+                idFilter = null;
+            }
+        }
+        modificationCount = modified;
+    }
+
+    /**
+     * Closes any open indexes so they are reloaded from their files when next used
+     */
+    private void closeIndexes() throws IOException {
+        if (nameIndex != null) {
+            nameIndex.close();
+            nameIndex = null;
+        }
+        if (idIndex != null) {
+            idIndex.close();
+            idIndex = null;
+        }
+        if (costIndex != null) {
+            costIndex.close();
+            costIndex = null;
+        }
+        if (zoneMap != null) {
+            zoneMap.close();
+            zoneMap = null;
+        }
+        if (idFilter != null) {
+            idFilter.close();
+            idFilter = null;
+        }
+    }
+
+    /**
+     * Brings any open indexes up to the record count, including records other writers appended.
+     * Writes through this store do this themselves; writers that append to the file directly
+     * (see ProductAppender) call it after refresh().
+     * @throws IOException If an index cannot be read or written
+     */
+    public void updateIndexes() throws IOException {
+        if (nameIndex != null) {
+            nameIndex.update();
+        }
+        if (idIndex != null) {
+            idIndex.update();
+        }
+        if (costIndex != null) {
+            costIndex.update();
+        }
+        if (zoneMap != null) {
+            zoneMap.update();
+        }
+        if (idFilter != null) {
+            idFilter.update();
+        }
+    }
+
+    /**
+     * Updates any open indexes for a record just written
+     */
+    private void indexRecord(int recordNumber, Product product) throws IOException {
+        if (nameIndex != null) {
+            nameIndex.add(recordNumber, product.getName());
+        }
+        if (idIndex != null) {
+            idIndex.put(product.getID(), recordNumber);
+        }
+        if (costIndex != null) {
+            costIndex.add(recordNumber, product.getCost());
+        }
+        if (zoneMap != null) {
+            zoneMap.add(recordNumber, product);
+        }
+        if (idFilter != null) {
+            idFilter.add(recordNumber, product.getID());
+        }
+    }
+
+    /**
+     * Finds the Product with the given ID.
+     * IDs the ID filter has never seen are ruled out at once. Otherwise 6-digit IDs are a single
+     * ID index lookup, and any other ID falls back to a scan of the zones (see ProductZoneMap)
+     * that may hold it.
+     * @param id The product ID
+     * @return The first Product with that ID, or null if there is none
+     * @throws IOException If an I/O error occurs
+     */
+    public Product findById(String id) throws IOException {
+        return read(findRecordById(id));
+    }
+
+    /**
+     * Finds the record number of the Product with the given ID (see findById)
+     * @param id The product ID
+     * @return The record number of the first Product with that ID, or -1 if there is none
+     * @throws IOException If an I/O error occurs
+     */
+    public int findRecordById(String id) throws IOException {
+        String trimmedId = id.trim();
+
+        // Most IDs looked up before an insert are new, and the filter rules those out without any I/O
+        ProductIdFilter filter = getIdFilter();
+        filter.update();
+        if (!filter.mightContain(trimmedId)) {
+            return -1;
+        }
+
+        if (ProductIdIndex.isIndexable(trimmedId)) {
+            ProductIdIndex index = getIdIndex();
+            index.update();
+            int recordNumber = index.lookup(trimmedId);
+            if (recordNumber < 0) {
+                return -1;
+            }
+            // The index is only a hint; the record itself has the final say. If it no longer
+            // has the ID, another record may have it, so the zones are searched instead
+            Product product = read(recordNumber);
+            if (product != null && product.getID().equals(trimmedId)) {
+                return recordNumber;
+            }
+        }
+
+        // Only zones whose ID range takes in this ID are read
+        ProductZoneMap zones = getZoneMap();
+        zones.update();
+        int[] first = {-1};
+        visit(0, recordCount, zones.zonesWithId(trimmedId), (view, recordNumber) -> {
+            if (first[0] < 0 && trimmedId.contentEquals(view.getID())) {
+                first[0] = recordNumber;
+            }
+        });
+        return first[0];
+    }
+
+    /**
+     * Returns every Product whose name contains the search term (case-insensitive), in record order.
+     * Uses the name index to check only candidate records; short terms fall back to a full scan.
+     * @param term The search term
+     * @return The matching products
+     * @throws IOException If an I/O error occurs
+     */
+    public List<Product> findByName(String term) throws IOException {
+        String lowerTerm = term.toLowerCase();
+        ProductNameIndex index = getNameIndex();
+        index.update();
+
+        RecordList candidates = index.candidates(lowerTerm);
+        if (candidates == null) {
+            return search(view -> ProductView.containsIgnoreCase(view.getName(), lowerTerm));
+        }
+
+        List<Product> matches = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            Product product = read(candidates.get(i));
+            if (product != null && product.getName().toLowerCase().contains(lowerTerm)) {
+                matches.add(product);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Returns every Product whose cost is within a range, in record order.
+     * Uses the cost index, so only the records in the range are read. A range that takes in
+     * more than 1/COST_SCAN_FRACTION of the records is scanned in blocks instead, skipping the
+     * zones that hold no cost in the range (see ProductZoneMap.zonesWithCost).
+     * @param min Lowest cost (inclusive)
+     * @param max Highest cost (inclusive)
+     * @return The matching products
+     * @throws IOException If an I/O error occurs
+     */
+    public List<Product> findByCostRange(double min, double max) throws IOException {
+        ProductCostIndex index = getCostIndex();
+        index.update();
+
+        RecordList candidates = index.candidates(min, max);
+        if (candidates.size() > recordCount / COST_SCAN_FRACTION) {
+            ProductZoneMap zones = getZoneMap();
+            zones.update();
+            return search(view -> view.getCost() >= min && view.getCost() <= max, zones.zonesWithCost(min, max));
+        }
+
+        List<Product> matches = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            Product product = read(candidates.get(i));
+            // The index is only a hint; the record itself has the final say
+            if (product != null && product.getCost() >= min && product.getCost() <= max) {
+                matches.add(product);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Returns every Product that matches a filter, in record order
+     * @param filter The test each record must pass (may be called from several threads at once)
+     * @return The matching products
+     * @throws IOException If an I/O error occurs
+     */
+    public List<Product> search(Predicate<ProductView> filter) throws IOException {
+        return search(filter, zone -> true);
+    }
+
+    /**
+     * Returns every Product that matches a filter, reading only the zones that may hold a match
+     * @param filter The test each record must pass (may be called from several threads at once)
+     * @param zones The test each zone must pass to be read, usually from the zone map
+     *              (see ProductZoneMap.zonesWithCost and friends)
+     * @return The matching products
+     * @throws IOException If an I/O error occurs
+     */
+    public List<Product> search(Predicate<ProductView> filter, IntPredicate zones) throws IOException {
+        // Large files are split across all cores
+        if (recordCount > ParallelProductScan.BLOCK_RECORDS) {
+            return new ParallelProductScan(this).search(filter, zones);
+        }
+
+        List<Product> matches = new ArrayList<>();
+        visit(0, recordCount, zones, (view, recordNumber) -> {
+            if (filter.test(view)) {
+                matches.add(view.toProduct());
+            }
+        });
+        return matches;
+    }
+
+    /**
+     * Scans a range of records in large sequential blocks.
+     * Each block is read with one I/O call into a reusable buffer and tested there through a
+     * ProductView, so a full-file scan runs at disk bandwidth without mapping the whole file,
+     * and only matching records are turned into Product objects.
+     * @param from First record number to scan (inclusive)
+     * @param to Last record number to scan (exclusive)
+     * @param filter The test each record must pass
+     * @param matches Receives each matching product with its record number
+     * @throws IOException If an I/O error occurs
+     */
+    public void scan(int from, int to, Predicate<ProductView> filter, ObjIntConsumer<Product> matches)
+            throws IOException {
+        visit(from, to, (view, recordNumber) -> {
+            if (filter.test(view)) {
+                matches.accept(view.toProduct(), recordNumber);
+            }
+        });
+    }
+
+    /**
+     * Passes every record in a range to a visitor, reading them in large sequential blocks.
+     * Deleted records are skipped.
+     * The same ProductView is reused for every record, so visitors must copy anything they keep.
+     * @param from First record number to visit (inclusive)
+     * @param to Last record number to visit (exclusive)
+     * @param visitor Receives a view of each record with its record number
+     * @throws IOException If an I/O error occurs
+     */
+    public void visit(int from, int to, ObjIntConsumer<ProductView> visitor) throws IOException {
+        to = Math.min(to, recordCount);
+        ProductView view = new ProductView(format);
+        if (scanBuffer == null) {
+            scanBuffer = ByteBuffer.allocateDirect(SCAN_BATCH_RECORDS * recordSize);
+        }
+
+        for (int batchStart = Math.max(from, 0); batchStart < to; batchStart += SCAN_BATCH_RECORDS) {
+            int batchRecords = Math.min(SCAN_BATCH_RECORDS, to - batchStart);
+            scanBuffer.clear().limit(batchRecords * recordSize);
+            readRecords(scanBuffer, batchStart);
+
+            for (int i = 0; i < batchRecords; i++) {
+                view.wrap(scanBuffer, i * recordSize);
+                if (!view.isDeleted()) {
+                    visitor.accept(view, batchStart + i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Passes every record in the zones that pass a test to a visitor (see visit).
+     * Runs of zones that fail the test are skipped without being read.
+     * @param from First record number to visit (inclusive)
+     * @param to Last record number to visit (exclusive)
+     * @param zones The test each zone (ProductZoneMap.ZONE_RECORDS records) must pass to be read
+     * @param visitor Receives a view of each record with its record number
+     * @throws IOException If an I/O error occurs
+     */
+    public void visit(int from, int to, IntPredicate zones, ObjIntConsumer<ProductView> visitor) throws IOException {
+        to = Math.min(to, recordCount);
+        int start = Math.max(from, 0);
+        while (start < to) {
+            int end = start;
+            while (end < to && zones.test(end / ProductZoneMap.ZONE_RECORDS)) {
+                end = Math.min(to, (end / ProductZoneMap.ZONE_RECORDS + 1) * ProductZoneMap.ZONE_RECORDS);
+            }
+            if (end > start) {
+                visit(start, end, visitor);
+                start = end;
+            } else {
+                start = (start / ProductZoneMap.ZONE_RECORDS + 1) * ProductZoneMap.ZONE_RECORDS;
+            }
+        }
+    }
+
+    /**
+     * Fills the buffer with raw records starting at a record number.
+     * Uses positional reads, so several threads can read different ranges at once.
+     * @param buf The buffer to fill from its position up to its limit
+     * @param firstRecord The record number to start reading at
+     * @throws IOException If an I/O error occurs or the file ends first
+     */
+    public void readRecords(ByteBuffer buf, int firstRecord) throws IOException {
+        long position = recordPosition(firstRecord);
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file: " + file);
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Copies raw records to another channel without decoding them.
+     * Uses FileChannel.transferTo, so the operating system can move the bytes between files
+     * without passing them through the Java heap.
+     * @param firstRecord The first record number to copy
+     * @param count The number of records to copy
+     * @param target The channel to write to, at its current position
+     * @throws IOException If an I/O error occurs or the file ends first
+     */
+    public void transferRecords(int firstRecord, int count, WritableByteChannel target) throws IOException {
+        long position = recordPosition(firstRecord);
+        long end = position + (long) count * recordSize;
+        while (position < end) {
+            long transferred = channel.transferTo(position, end - position, target);
+            if (transferred <= 0 && position >= channel.size()) {
+                throw new IOException("Unexpected end of file: " + file);
+            }
+            position += transferred;
+        }
+    }
+
+    /**
+     * Writes the whole buffer at the given file position
+     */
+    private void writeFully(ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+
+    /**
+     * Replaces a file kept beside a data file, such as one of its indexes. The contents go to a
+     * new file that is renamed over the old one, so readers never see half a file, and it is
+     * given the data file's permissions, so whoever can read the data can read it too.
+     * @param sidecar The file to replace
+     * @param dataFile The data file it belongs to
+     * @param contents The bytes to write, in order
+     * @throws IOException If the file cannot be written
+     */
+    public static void replaceSidecar(File sidecar, File dataFile, ByteBuffer... contents) throws IOException {
+        Path target = sidecar.getAbsoluteFile().toPath();
+        Path temp = Files.createTempFile(target.getParent(), sidecar.getName(), ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                for (ByteBuffer content : contents) {
+                    while (content.hasRemaining()) {
+                        out.write(content);
+                    }
+                }
+            }
+            // Temp files are only readable by their owner; set last, in case the data file is read-only
+            PosixFileAttributeView permissions = Files.getFileAttributeView(temp, PosixFileAttributeView.class);
+            if (permissions != null) {
+                permissions.setPermissions(Files.getPosixFilePermissions(dataFile.toPath()));
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * Number of whole records the file is long enough to hold, committed or not
+     */
+    private long fileRecordCount() throws IOException {
+        return Math.max(0, (channel.size() - format.headerSize()) / recordSize);
+    }
+
+    /**
+     * Forces every record written so far (and the header count) to the storage device
+     * @throws IOException If an I/O error occurs
+     */
+    public void force() throws IOException {
+        channel.force(false);
+    }
+
+    private void checkWritable() throws IOException {
+        if (!writable) {
+            throw new IOException("Product store is open read-only: " + file);
+        }
+    }
+
+    /**
+     * Byte position of a record in the file
+     * @param recordNumber The record number (0-based)
+     * @return The file position of the record's first byte
+     */
+    public long recordPosition(int recordNumber) {
+        return format.headerSize() + (long) recordNumber * recordSize;
+    }
+
+    /**
+     * Returns the mapped chunk holding a record, mapping or growing it first if needed.
+     * Full chunks are mapped once; the last chunk is remapped as records are appended.
+     */
+    private ByteBuffer chunkFor(int recordNumber) throws IOException {
+        int index = recordNumber / CHUNK_RECORDS;
+        while (chunks.size() <= index) {
+            chunks.add(null);
+        }
+
+        MappedByteBuffer chunk = chunks.get(index);
+        if (chunk == null || chunk.capacity() < chunkOffset(recordNumber) + recordSize) {
+            int firstRecord = index * CHUNK_RECORDS;
+            int chunkRecords = Math.min(CHUNK_RECORDS, recordCount - firstRecord);
+            long start = recordPosition(firstRecord);
+            long size = (long) chunkRecords * recordSize;
+            chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            chunks.set(index, chunk);
+        }
+        return chunk;
+    }
+
+    private int chunkOffset(int recordNumber) {
+        return (recordNumber % CHUNK_RECORDS) * recordSize;
+    }
+
+    /**
+     * Closes the underlying file
+     * @throws IOException If an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        closeIndexes();
+        if (lockFile != null) {
+            lockFile.close();
+        }
+        chunks.clear();
+        channel.close();
+    }
+}
@@ -0,0 +1,93 @@
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Table model for a list of matching products that holds only their record numbers.
+ * Each cell is read from the ProductCatalogCache when the table asks for it, and a JTable only
+ * asks for the rows that are on screen, so even a million matches take 4 bytes each and show
+ * up at once.
+ *
+ * All methods must be called on the event dispatch thread.
+ */
+public class ProductTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+    private static final String[] COLUMN_NAMES = {"ID", "Name", "Description", "Cost"};
+
+    private final ProductCatalogCache cache;
+    private RecordList records = new RecordList();
+
+    /**
+     * Creates an empty model
+     * @param cache The cache to read rows from
+     */
+    public ProductTableModel(ProductCatalogCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Removes every row
+     */
+    public void clear() {
+        records = new RecordList();
+        fireTableDataChanged();
+    }
+
+    /**
+     * Adds rows for a batch of matching records
+     * @param more Record numbers to add, in order after the rows already in the model
+     */
+    public void addRecords(RecordList more) {
+        if (more.isEmpty()) {
+            return;
+        }
+        int firstRow = records.size();
+        for (int i = 0; i < more.size(); i++) {
+            records.add(more.get(i));
+        }
+        fireTableRowsInserted(firstRow, records.size() - 1);
+    }
+
+    /**
+     * Returns the record number shown in a row
+     * @param row The row index
+     * @return The record number
+     */
+    public int getRecordNumber(int row) {
+        return records.get(row);
+    }
+
+    @Override
+    public int getRowCount() {
+        return records.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return column == 3 ? Double.class : String.class;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        int recordNumber = records.get(row);
+        switch (column) {
+            case 0:
+                return cache.getID(recordNumber);
+            case 1:
+                return cache.getName(recordNumber);
+            case 2:
+                return cache.getDescription(recordNumber);
+            default:
+                double cost = cache.getCost(recordNumber);
+                return Double.isNaN(cost) ? null : cost;
+        }
+    }
+}
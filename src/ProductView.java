@@ -0,0 +1,212 @@
+import java.nio.ByteBuffer;
+
+/**
+ * A reusable, read-only view of one encoded product record.
+ * Scans point a single view at each record in turn and test it through the accessors, which
+ * decode into buffers owned by the view instead of allocating Strings. Only records that
+ * match need to be turned into Product objects with toProduct().
+ *
+ * The CharSequences returned by the getters belong to the view and change when it is
+ * moved to another record; call toString() on them to keep a copy.
+ */
+public class ProductView {
+    private final ProductFormat format;
+    private final Field name;
+    private final Field description;
+    private final Field id;
+    private ByteBuffer buf;
+    private int offset;
+
+    /**
+     * Creates a view for records in the given format
+     * @param format The layout of the records the view will be pointed at
+     */
+    public ProductView(ProductFormat format) {
+        this.format = format;
+        if (format == ProductFormat.V1) {
+            name = new Field(0, Product.NAME_SIZE);
+            description = new Field(Product.NAME_SIZE * 2, Product.DESCRIPTION_SIZE);
+            id = new Field((Product.NAME_SIZE + Product.DESCRIPTION_SIZE) * 2, Product.ID_SIZE);
+        } else {
+            name = new Field(0, ProductFormat.V2_NAME_BYTES);
+            description = new Field(ProductFormat.V2_NAME_BYTES, ProductFormat.V2_DESCRIPTION_BYTES);
+            id = new Field(ProductFormat.V2_NAME_BYTES + ProductFormat.V2_DESCRIPTION_BYTES, Product.ID_SIZE);
+        }
+    }
+
+    /**
+     * Points the view at a record
+     * @param buf The buffer holding the record
+     * @param offset Byte offset of the record within the buffer
+     * @return This view
+     */
+    public ProductView wrap(ByteBuffer buf, int offset) {
+        this.buf = buf;
+        this.offset = offset;
+        name.decoded = false;
+        description.decoded = false;
+        id.decoded = false;
+        return this;
+    }
+
+    public CharSequence getName() {
+        return name.decode();
+    }
+
+    public CharSequence getDescription() {
+        return description.decode();
+    }
+
+    public CharSequence getID() {
+        return id.decode();
+    }
+
+    /**
+     * Tests whether the current record has been deleted
+     * @return true if the record is a tombstone
+     */
+    public boolean isDeleted() {
+        return format.isDeleted(buf, offset);
+    }
+
+    public double getCost() {
+        return buf.getDouble(offset + format.recordSize() - 8);
+    }
+
+    /**
+     * Creates a Product holding a copy of the current record
+     * @return A new Product
+     */
+    public Product toProduct() {
+        return format.decode(buf, offset);
+    }
+
+    /**
+     * Case-insensitive substring test that does not allocate
+     * @param text The text to search in
+     * @param lowerTerm The term to look for, already lowercased
+     * @return true if text contains the term
+     */
+    public static boolean containsIgnoreCase(CharSequence text, String lowerTerm) {
+        int last = text.length() - lowerTerm.length();
+        for (int start = 0; start <= last; start++) {
+            int i = 0;
+            while (i < lowerTerm.length() && Character.toLowerCase(text.charAt(start + i)) == lowerTerm.charAt(i)) {
+                i++;
+            }
+            if (i == lowerTerm.length()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * One text field of the record, decoded on first access into a reusable char array
+     */
+    private class Field implements CharSequence {
+        private final int fieldOffset;
+        private final int slotSize;
+        private final char[] chars;
+        private int length;
+        private boolean decoded;
+
+        Field(int fieldOffset, int slotSize) {
+            this.fieldOffset = fieldOffset;
+            this.slotSize = slotSize;
+            // A UTF-8 slot never holds more chars than bytes
+            this.chars = new char[slotSize];
+        }
+
+        Field decode() {
+            if (!decoded) {
+                if (format == ProductFormat.V1 || this == id) {
+                    decodeFixed();
+                } else {
+                    decodeUtf8();
+                }
+                decoded = true;
+            }
+            return this;
+        }
+
+        /**
+         * Fixed-width chars (UTF-16 in V1, ASCII IDs in V2), trimmed like String.trim()
+         */
+        private void decodeFixed() {
+            int base = offset + fieldOffset;
+            int count = 0;
+            for (int i = 0; i < slotSize; i++) {
+                chars[count++] = format == ProductFormat.V1
+                        ? buf.getChar(base + i * 2)
+                        : (char) (buf.get(base + i) & 0xFF);
+            }
+
+            int start = 0;
+            while (start < count && chars[start] <= ' ') {
+                start++;
+            }
+            while (count > start && chars[count - 1] <= ' ') {
+                count--;
+            }
+            if (start > 0) {
+                System.arraycopy(chars, start, chars, 0, count - start);
+            }
+            length = count - start;
+        }
+
+        /**
+         * Length-prefixed UTF-8 (V2 name and description)
+         */
+        private void decodeUtf8() {
+            int base = offset + fieldOffset;
+            int end = base + 1 + Math.min(buf.get(base) & 0xFF, slotSize - 1);
+            int count = 0;
+            int i = base + 1;
+            while (i < end) {
+                int b = buf.get(i++) & 0xFF;
+                if (b < 0x80) {
+                    chars[count++] = (char) b;
+                } else if (b < 0xE0) {
+                    chars[count++] = (char) (((b & 0x1F) << 6) | (next(i++, end) & 0x3F));
+                } else if (b < 0xF0) {
+                    chars[count++] = (char) (((b & 0x0F) << 12) | ((next(i++, end) & 0x3F) << 6)
+                            | (next(i++, end) & 0x3F));
+                } else {
+                    int codePoint = ((b & 0x07) << 18) | ((next(i++, end) & 0x3F) << 12)
+                            | ((next(i++, end) & 0x3F) << 6) | (next(i++, end) & 0x3F);
+                    chars[count++] = Character.highSurrogate(codePoint);
+                    chars[count++] = Character.lowSurrogate(codePoint);
+                }
+            }
+            length = count;
+        }
+
+        private int next(int index, int end) {
+            return index < end ? buf.get(index) : 0;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + length);
+            }
+            return chars[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return new String(chars, 0, length);
+        }
+    }
+}
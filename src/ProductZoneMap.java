@@ -0,0 +1,276 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntPredicate;
+
+/**
+ * Block summaries ("zone maps") that let scans skip parts of a product data file.
+ *
+ * Every ZONE_RECORDS records form a zone, summarised by the lowest and highest cost and the
+ * lowest and highest ID. A scan given one of the zone tests below (see ProductStore.visit and
+ * ProductStore.search) only reads the zones that may hold a match. A summary only ever widens:
+ * a record changed in place is added to its zone again and a deleted one is left in, so a zone
+ * test can let a zone through that turns out to have no match, but never skips one that has.
+ *
+ * The summaries are kept beside the data file (ProductData.dat.zones) and loaded into memory
+ * when opened. File layout: a 16-byte header (records summarised, zone count, the store's
+ * modified count when the file was written), then ZONE_SIZE bytes per zone. Changes are saved
+ * when the map is closed; if records were changed in place by another process since the file
+ * was written, it is rebuilt from scratch.
+ */
+public class ProductZoneMap implements Closeable {
+    public static final String FILE_SUFFIX = ".zones";
+    public static final int ZONE_RECORDS = 4096;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int MIN_COST_OFFSET = 0;
+    private static final int MAX_COST_OFFSET = 8;
+    private static final int MIN_ID_OFFSET = 16;
+    private static final int MAX_ID_OFFSET = MIN_ID_OFFSET + Product.ID_SIZE * 2;
+    private static final int RECORDS_OFFSET = MAX_ID_OFFSET + Product.ID_SIZE * 2;
+    public static final int ZONE_SIZE = RECORDS_OFFSET + 4;
+
+    private final ProductStore store;
+    private final File indexFile;
+    private final boolean writable;
+    private ByteBuffer zones = ByteBuffer.allocateDirect(ZONE_SIZE);
+    private int zoneCount;
+    private int indexedCount;
+    private boolean changed;
+
+    /**
+     * Opens the zone map for a store, loading the file and summarising any records added since
+     * @param store The product store the zone map belongs to
+     * @param writable true to save the zone map file, false to keep everything in memory only
+     * @throws IOException If the file cannot be read or written
+     */
+    public ProductZoneMap(ProductStore store, boolean writable) throws IOException {
+        this.store = store;
+        this.indexFile = indexFileFor(store.getFile());
+        this.writable = writable;
+
+        if (!load()) {
+            changed = true;
+        }
+        update();
+    }
+
+    /**
+     * Returns the zone map file used for a data file
+     * @param dataFile The product data file
+     * @return The sidecar file
+     */
+    public static File indexFileFor(File dataFile) {
+        return new File(dataFile.getPath() + FILE_SUFFIX);
+    }
+
+    public int getIndexedCount() {
+        return indexedCount;
+    }
+
+    public int getZoneCount() {
+        return zoneCount;
+    }
+
+    /**
+     * Summarises any records in the store that are not in the zone map yet
+     * @throws IOException If the store cannot be read
+     */
+    public void update() throws IOException {
+        if (indexedCount < store.getRecordCount()) {
+            store.visit(indexedCount, store.getRecordCount(), (view, recordNumber) ->
+                    add(recordNumber, view.getID(), view.getCost()));
+            indexedCount = store.getRecordCount();
+            changed = true;
+        }
+    }
+
+    /**
+     * Adds a record written or changed through the store to its zone's summary
+     * @param recordNumber The record number of the product
+     * @param product The product's values
+     */
+    public void add(int recordNumber, Product product) {
+        add(recordNumber, product.getID(), product.getCost());
+        indexedCount = Math.max(indexedCount, recordNumber + 1);
+        changed = true;
+    }
+
+    private void add(int recordNumber, CharSequence id, double cost) {
+        int zone = recordNumber / ZONE_RECORDS;
+        while (zoneCount <= zone) {
+            addZone();
+        }
+        int base = zone * ZONE_SIZE;
+
+        // NaN costs are left out, since no cost range can match them
+        if (cost < zones.getDouble(base + MIN_COST_OFFSET)) {
+            zones.putDouble(base + MIN_COST_OFFSET, cost);
+        }
+        if (cost > zones.getDouble(base + MAX_COST_OFFSET)) {
+            zones.putDouble(base + MAX_COST_OFFSET, cost);
+        }
+
+        int records = zones.getInt(base + RECORDS_OFFSET);
+        if (records == 0 || compareId(id, base + MIN_ID_OFFSET) < 0) {
+            writeId(base + MIN_ID_OFFSET, id);
+        }
+        if (records == 0 || compareId(id, base + MAX_ID_OFFSET) > 0) {
+            writeId(base + MAX_ID_OFFSET, id);
+        }
+        zones.putInt(base + RECORDS_OFFSET, records + 1);
+    }
+
+    /**
+     * Appends an empty zone, growing the buffer if needed
+     */
+    private void addZone() {
+        if ((zoneCount + 1) * ZONE_SIZE > zones.capacity()) {
+            ByteBuffer grown = ByteBuffer.allocateDirect(Math.max(zones.capacity() * 2, (zoneCount + 1) * ZONE_SIZE));
+            grown.put(0, zones, 0, zoneCount * ZONE_SIZE);
+            zones = grown;
+        }
+        int base = zoneCount * ZONE_SIZE;
+        for (int i = 0; i < ZONE_SIZE; i++) {
+            zones.put(base + i, (byte) 0);
+        }
+        zones.putDouble(base + MIN_COST_OFFSET, Double.POSITIVE_INFINITY);
+        zones.putDouble(base + MAX_COST_OFFSET, Double.NEGATIVE_INFINITY);
+        zoneCount++;
+    }
+
+    /**
+     * Returns a test for zones that may hold a record with a cost in a range
+     * @param min Lowest cost (inclusive)
+     * @param max Highest cost (inclusive)
+     * @return A test taking a zone number
+     */
+    public IntPredicate zonesWithCost(double min, double max) {
+        return zone -> !summarised(zone)
+                || (zones.getDouble(zone * ZONE_SIZE + MIN_COST_OFFSET) <= max
+                && zones.getDouble(zone * ZONE_SIZE + MAX_COST_OFFSET) >= min);
+    }
+
+    /**
+     * Returns a test for zones that may hold a record with an ID
+     * @param id The product ID
+     * @return A test taking a zone number
+     */
+    public IntPredicate zonesWithId(String id) {
+        return zone -> !summarised(zone)
+                || (zones.getInt(zone * ZONE_SIZE + RECORDS_OFFSET) > 0
+                && compareId(id, zone * ZONE_SIZE + MIN_ID_OFFSET) >= 0
+                && compareId(id, zone * ZONE_SIZE + MAX_ID_OFFSET) <= 0);
+    }
+
+    /**
+     * Returns true if every record of the zone the store has is in its summary
+     */
+    private boolean summarised(int zone) {
+        return zone < zoneCount && Math.min((zone + 1) * ZONE_RECORDS, store.getRecordCount()) <= indexedCount;
+    }
+
+    /**
+     * Compares an ID with one stored in the zones, in the order of String.compareTo
+     */
+    private int compareId(CharSequence id, int offset) {
+        for (int i = 0; i < Product.ID_SIZE; i++) {
+            char stored = zones.getChar(offset + i * 2);
+            if (i == id.length()) {
+                return stored == 0 ? 0 : -1;
+            }
+            if (stored == 0) {
+                return 1;
+            }
+            if (id.charAt(i) != stored) {
+                return id.charAt(i) - stored;
+            }
+        }
+        return id.length() > Product.ID_SIZE ? 1 : 0;
+    }
+
+    private void writeId(int offset, CharSequence id) {
+        for (int i = 0; i < Product.ID_SIZE; i++) {
+            zones.putChar(offset + i * 2, i < id.length() ? id.charAt(i) : 0);
+        }
+    }
+
+    /**
+     * Reads the zone map file, if there is one and it matches the store
+     * @return false if the zone map has to be rebuilt
+     */
+    private boolean load() throws IOException {
+        if (!indexFile.exists() || indexFile.length() < HEADER_SIZE) {
+            return false;
+        }
+
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                // keep reading until the header is full
+            }
+            int records = header.getInt(0);
+            int count = header.getInt(4);
+            if (channel.size() != HEADER_SIZE + (long) count * ZONE_SIZE
+                    || header.getLong(8) != store.getModificationCount() || records > store.getRecordCount()) {
+                return false;
+            }
+
+            ByteBuffer loaded = ByteBuffer.allocateDirect(Math.max(count, 1) * ZONE_SIZE);
+            loaded.limit(count * ZONE_SIZE);
+            while (loaded.hasRemaining() && channel.read(loaded, HEADER_SIZE + loaded.position()) >= 0) {
+                // keep reading until every zone is loaded
+            }
+            zones = loaded.clear();
+            zoneCount = count;
+            indexedCount = records;
+            return true;
+        }
+    }
+
+    /**
+     * Saves the zone map, if anything changed since it was loaded
+     * @throws IOException If the file cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (!writable || !changed) {
+            return;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(0, indexedCount).putInt(4, zoneCount).putLong(8, store.getModificationCount());
+        ProductStore.replaceSidecar(indexFile, store.getFile(), header,
+                zones.duplicate().clear().limit(zoneCount * ZONE_SIZE));
+        changed = false;
+    }
+
+    /**
+     * Rebuilds the zone map for an existing data file.
+     * Usage: java ProductZoneMap [dataFile] (defaults to ProductData.dat)
+     */
+    public static void main(String[] args) {
+        File dataFile = new File(args.length > 0 ? args[0] : "ProductData.dat");
+        if (!dataFile.exists()) {
+            System.out.println("Product data file not found: " + dataFile);
+            System.exit(1);
+        }
+
+        File indexFile = indexFileFor(dataFile);
+        if (indexFile.exists() && !indexFile.delete()) {
+            System.out.println("Could not delete old zone map: " + indexFile);
+            System.exit(1);
+        }
+
+        try (ProductStore store = new ProductStore(dataFile, "r");
+             ProductZoneMap zoneMap = new ProductZoneMap(store, true)) {
+            System.out.println("Summarised " + zoneMap.getIndexedCount() + " record(s) in "
+                    + zoneMap.getZoneCount() + " zone(s) into " + indexFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
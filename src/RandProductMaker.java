@@ -1,8 +1,9 @@
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 
 /**
  * GUI application for creating Product records in a Random Access File
@@ -19,7 +20,9 @@ public class RandProductMaker extends JFrame {
     private JButton addButton;
     private JButton quitButton;
 
-    private RandomAccessFile raf;
+    private ProductStore store;
+    private ProductAppender appender;
+    private ProductPrefixIndex prefixIndex;
     private int recordCount;
     private static final String FILE_NAME = "ProductData.dat";
 
@@ -35,6 +38,14 @@ public class RandProductMaker extends JFrame {
         recordCount = 0;
         initializeFile();
         createGUI();
+
+        // Write out any records still waiting when the window is closed
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                closeFile();
+            }
+        });
         setVisible(true);
     }
 
@@ -44,12 +55,25 @@ public class RandProductMaker extends JFrame {
     private void initializeFile() {
         try {
             File file = new File(FILE_NAME);
-            raf = new RandomAccessFile(file, "rw");
+            store = new ProductStore(file, "rw");
 
-            // If file exists, calculate record count
-            if (file.exists() && file.length() > 0) {
-                recordCount = (int) (raf.length() / Product.RECORD_SIZE);
-            }
+            // Open the indexes so every written group is indexed as it is flushed, and saved
+            // for RandProductSearch, which only reads them; the ID filter answers most duplicate
+            // checks for new IDs without reading the file
+            store.getNameIndex();
+            store.getIdFilter();
+            store.getIdIndex();
+            store.getCostIndex();
+            store.getZoneMap();
+
+            // RandProductSearch suggests names from the prefix index, which is updated on close
+            prefixIndex = new ProductPrefixIndex(store, true);
+
+            // Records are written in groups; each group is forced to disk once written
+            appender = new ProductAppender(store, ProductAppender.Durability.BATCH);
+
+            // If file exists, pick up its record count
+            recordCount = store.getRecordCount();
         } catch (IOException e) {
             JOptionPane.showMessageDialog(this,
                     "Error opening file: " + e.getMessage(),
@@ -164,6 +188,23 @@ public class RandProductMaker extends JFrame {
             return;
         }
 
+        // Validate the ID is not already in use
+        try {
+            if (appender.findById(id) != null) {
+                JOptionPane.showMessageDialog(this,
+                        "A product with ID " + id + " already exists!",
+                        "Validation Error",
+                        JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this,
+                    "Error reading file: " + e.getMessage(),
+                    "File Error",
+                    JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
         // Validate cost is a valid double
         double cost;
         try {
@@ -183,14 +224,11 @@ public class RandProductMaker extends JFrame {
         try {
             Product product = new Product(name, description, id, cost);
 
-            // Move to end of file
-            raf.seek(raf.length());
-
-            // Write the product
-            product.writeToRandomFile(raf);
+            // Queue the product to be appended after the last whole record
+            appender.append(product);
 
-            // Increment record count
-            recordCount++;
+            // Update record count
+            recordCount = appender.getRecordCount();
             recordCountField.setText(String.valueOf(recordCount));
 
             // Show success message
@@ -222,23 +260,37 @@ public class RandProductMaker extends JFrame {
     }
 
     /**
-     * Close file and quit application
+     * Write any waiting records and close the file
      */
-    private void quitApplication() {
+    private void closeFile() {
         try {
-            if (raf != null) {
-                raf.close();
+            if (appender != null) {
+                appender.close();
+            }
+            // The prefix index is not kept by the store, so it picks up this session's records here
+            if (prefixIndex != null) {
+                prefixIndex.update();
+                prefixIndex.close();
+            }
+            if (store != null) {
+                store.close();
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
+    }
 
+    /**
+     * Close file and quit application
+     */
+    private void quitApplication() {
         int confirm = JOptionPane.showConfirmDialog(this,
                 "Are you sure you want to quit?",
                 "Confirm Quit",
                 JOptionPane.YES_NO_OPTION);
 
         if (confirm == JOptionPane.YES_OPTION) {
+            closeFile();
             System.exit(0);
         }
     }
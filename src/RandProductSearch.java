@@ -1,31 +1,78 @@
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.table.DefaultTableCellRenderer;
 import java.awt.*;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * GUI application for searching Product records in a Random Access File
- * Searches by partial product name and displays all matching results
+ * Searches by partial product name and/or a cost range and displays all matching results
+ * Searches run in the background, so results appear as they are found and can be cancelled
+ * Product names starting with the text typed so far are suggested as you type
  *
  * @author Maria Smith
  */
 public class RandProductSearch extends JFrame {
     private JTextField searchField;
+    private JTextField minCostField;
+    private JTextField maxCostField;
     private JButton searchButton;
+    private JButton cancelButton;
     private JButton quitButton;
-    private JTextArea resultsArea;
+    private JProgressBar progressBar;
+    private JLabel resultsLabel;
+    private JTable resultsTable;
+    private ProductTableModel resultsModel;
     private JScrollPane scrollPane;
 
+    // Loaded and searched by the search worker, one search at a time; the table only reads the cache
+    private ProductStore store;
+    private ProductCatalogCache cache;
+    private ProductQueryCache queryCache;
+    private SearchWorker worker;
+    // Set until the worker's background work has returned, which for a cancelled search can be
+    // well after done(); the store and caches are not thread-safe, so no search starts before then
+    private boolean searching;
     private static final String FILE_NAME = "ProductData.dat";
 
+    // Records loaded and searched between progress updates
+    private static final int SEARCH_BLOCK_RECORDS = 16384;
+
+    // Suggestions come from the sorted name index, looked up on their own thread
+    private static final int MAX_SUGGESTIONS = 10;
+    private JPopupMenu suggestionPopup;
+    private JList<String> suggestionList;
+    private final ExecutorService suggester = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "product-suggest");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private int suggestionRequest;
+    private boolean settingSearchText;
+
+    // Only used on the suggester thread
+    private ProductStore suggestStore;
+    private ProductPrefixIndex prefixIndex;
+
     /**
      * Constructor - sets up the GUI
      */
     public RandProductSearch() {
         setTitle("Random Access Product Search");
-        setSize(700, 500);
+        setSize(900, 500);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setLocationRelativeTo(null);
 
@@ -54,46 +101,212 @@ public class RandProductSearch extends JFrame {
         searchField = new JTextField(30);
         searchPanel.add(searchField);
 
+        // Either end of the cost range may be left blank
+        searchPanel.add(new JLabel("Cost from:"));
+        minCostField = new JTextField(6);
+        searchPanel.add(minCostField);
+        searchPanel.add(new JLabel("to:"));
+        maxCostField = new JTextField(6);
+        searchPanel.add(maxCostField);
+
         searchButton = new JButton("Search");
         searchButton.addActionListener(e -> performSearch());
         searchPanel.add(searchButton);
 
+        cancelButton = new JButton("Cancel");
+        cancelButton.setEnabled(false);
+        cancelButton.addActionListener(e -> cancelSearch());
+        searchPanel.add(cancelButton);
+
         quitButton = new JButton("Quit");
         quitButton.addActionListener(e -> quitApplication());
         searchPanel.add(quitButton);
 
         mainPanel.add(searchPanel, BorderLayout.NORTH);
 
-        // Results area
-        resultsArea = new JTextArea();
-        resultsArea.setEditable(false);
-        resultsArea.setFont(new Font("Monospaced", Font.PLAIN, 12));
-        scrollPane = new JScrollPane(resultsArea);
-        mainPanel.add(scrollPane, BorderLayout.CENTER);
+        // Results table; rows are read from the catalog cache as they scroll into view
+        JPanel resultsPanel = new JPanel(new BorderLayout(5, 5));
+        resultsLabel = new JLabel(" ");
+        resultsPanel.add(resultsLabel, BorderLayout.NORTH);
+        resultsTable = new JTable();
+        resultsTable.setFillsViewportHeight(true);
+        scrollPane = new JScrollPane(resultsTable);
+        resultsPanel.add(scrollPane, BorderLayout.CENTER);
+        mainPanel.add(resultsPanel, BorderLayout.CENTER);
 
         // Instructions panel
         JPanel instructionsPanel = new JPanel();
         instructionsPanel.setLayout(new BorderLayout());
         JLabel instructionsLabel = new JLabel(
-                "<html><i>Enter a partial product name and click Search to find matching products</i></html>");
+                "<html><i>Enter a partial product name and/or a cost range and click Search to find matching products</i></html>");
         instructionsPanel.add(instructionsLabel, BorderLayout.CENTER);
+        progressBar = new JProgressBar(0, 100);
+        progressBar.setStringPainted(true);
+        instructionsPanel.add(progressBar, BorderLayout.EAST);
         mainPanel.add(instructionsPanel, BorderLayout.SOUTH);
 
         add(mainPanel);
 
         // Add Enter key listener to search field
-        searchField.addActionListener(e -> performSearch());
+        searchField.addActionListener(e -> {
+            acceptSuggestion();
+            performSearch();
+        });
+        minCostField.addActionListener(e -> performSearch());
+        maxCostField.addActionListener(e -> performSearch());
+
+        createSuggestions();
+    }
+
+    /**
+     * Set up the suggestion list shown under the search field while typing
+     */
+    private void createSuggestions() {
+        suggestionList = new JList<>();
+        suggestionList.setFocusable(false);
+        suggestionList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        suggestionList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                acceptSuggestion();
+                performSearch();
+            }
+        });
+
+        // Not focusable, so typing carries on in the search field while it is showing
+        suggestionPopup = new JPopupMenu();
+        suggestionPopup.setFocusable(false);
+        suggestionPopup.add(new JScrollPane(suggestionList));
+
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                requestSuggestions();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                requestSuggestions();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+
+        // Up and Down move through the suggestions, Escape hides them
+        searchField.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (!suggestionPopup.isVisible()) {
+                    return;
+                }
+                int size = suggestionList.getModel().getSize();
+                int selected = suggestionList.getSelectedIndex();
+                if (e.getKeyCode() == KeyEvent.VK_DOWN) {
+                    suggestionList.setSelectedIndex(Math.min(selected + 1, size - 1));
+                } else if (e.getKeyCode() == KeyEvent.VK_UP) {
+                    suggestionList.setSelectedIndex(Math.max(selected - 1, 0));
+                } else if (e.getKeyCode() == KeyEvent.VK_ESCAPE) {
+                    suggestionPopup.setVisible(false);
+                }
+            }
+        });
     }
 
     /**
-     * Perform the search operation
+     * Look up names starting with the search text on the suggester thread.
+     * Only the answer to the latest request is shown.
+     */
+    private void requestSuggestions() {
+        if (settingSearchText) {
+            return;
+        }
+        int request = ++suggestionRequest;
+        String prefix = searchField.getText().trim();
+        File file = new File(FILE_NAME);
+        if (prefix.isEmpty() || !file.exists()) {
+            suggestionPopup.setVisible(false);
+            return;
+        }
+
+        suggester.execute(() -> {
+            try {
+                // The first lookup opens the index RandProductMaker keeps (or builds one in
+                // memory); later ones pick up new records
+                if (prefixIndex == null) {
+                    suggestStore = new ProductStore(file, "r");
+                    prefixIndex = new ProductPrefixIndex(suggestStore, false);
+                } else {
+                    suggestStore.refresh();
+                    prefixIndex.update();
+                }
+                List<String> names = prefixIndex.suggest(prefix, MAX_SUGGESTIONS);
+                SwingUtilities.invokeLater(() -> showSuggestions(request, names));
+            } catch (IOException e) {
+                // Suggestions are only a convenience; searching reports any file error
+                SwingUtilities.invokeLater(() -> showSuggestions(request, List.of()));
+            }
+        });
+    }
+
+    /**
+     * Show the suggestions for a request, unless more has been typed since
+     */
+    private void showSuggestions(int request, List<String> names) {
+        if (request != suggestionRequest || !searchField.isShowing()) {
+            return;
+        }
+        if (names.isEmpty() || searching) {
+            suggestionPopup.setVisible(false);
+            return;
+        }
+
+        suggestionList.setListData(names.toArray(new String[0]));
+        suggestionList.setVisibleRowCount(names.size());
+        suggestionPopup.pack();
+        suggestionPopup.show(searchField, 0, searchField.getHeight());
+    }
+
+    /**
+     * Put the selected suggestion in the search field and hide the list
+     */
+    private void acceptSuggestion() {
+        String selected = suggestionPopup.isVisible() ? suggestionList.getSelectedValue() : null;
+        suggestionPopup.setVisible(false);
+        suggestionRequest++;
+        if (selected != null) {
+            settingSearchText = true;
+            searchField.setText(selected);
+            settingSearchText = false;
+        }
+    }
+
+    /**
+     * Start the search operation in the background
      */
     private void performSearch() {
+        if (searching) {
+            return;
+        }
+
         String searchTerm = searchField.getText().trim();
+        double minCost;
+        double maxCost;
+        try {
+            minCost = parseCost(minCostField, Double.NEGATIVE_INFINITY);
+            maxCost = parseCost(maxCostField, Double.POSITIVE_INFINITY);
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(this,
+                    "Please enter costs as numbers, e.g. 19.99",
+                    "Search Error",
+                    JOptionPane.WARNING_MESSAGE);
+            return;
+        }
 
-        if (searchTerm.isEmpty()) {
+        if (searchTerm.isEmpty() && minCost == Double.NEGATIVE_INFINITY && maxCost == Double.POSITIVE_INFINITY) {
             JOptionPane.showMessageDialog(this,
-                    "Please enter a search term!",
+                    "Please enter a search term or a cost range!",
                     "Search Error",
                     JOptionPane.WARNING_MESSAGE);
             return;
@@ -109,78 +322,264 @@ public class RandProductSearch extends JFrame {
             return;
         }
 
-        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
-            ArrayList<Product> matchingProducts = new ArrayList<>();
+        // Opening the file is quick; the catalog itself is loaded by the search worker
+        if (store == null) {
+            try {
+                store = new ProductStore(file, "r");
+                cache = new ProductCatalogCache(store, 0);
+                queryCache = new ProductQueryCache(cache);
+            } catch (IOException e) {
+                JOptionPane.showMessageDialog(this,
+                        "Error reading file: " + e.getMessage(),
+                        "File Error",
+                        JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            resultsModel = new ProductTableModel(cache);
+            resultsTable.setModel(resultsModel);
+            resultsTable.getColumnModel().getColumn(0).setPreferredWidth(60);
+            resultsTable.getColumnModel().getColumn(1).setPreferredWidth(200);
+            resultsTable.getColumnModel().getColumn(2).setPreferredWidth(300);
+            resultsTable.getColumnModel().getColumn(3).setPreferredWidth(80);
+            resultsTable.getColumnModel().getColumn(3).setCellRenderer(new CostRenderer());
+        }
 
-            // Read all records and find matches
-            raf.seek(0);
-            while (raf.getFilePointer() < raf.length()) {
-                Product product = Product.readFromRandomFile(raf);
+        // Matching products are added to the table as they are found
+        resultsModel.clear();
+        String description = describeSearch(searchTerm, minCost, maxCost);
+        resultsLabel.setText("Search Results for: " + description);
 
-                if (product != null) {
-                    // Check if product name contains search term (case-insensitive)
-                    if (product.getName().toLowerCase().contains(searchTerm.toLowerCase())) {
-                        matchingProducts.add(product);
-                    }
-                }
+        searching = true;
+        searchButton.setEnabled(false);
+        cancelButton.setEnabled(true);
+        progressBar.setValue(0);
+
+        worker = new SearchWorker(searchTerm, minCost, maxCost, description);
+        worker.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) {
+                progressBar.setValue((Integer) e.getNewValue());
             }
+        });
+        worker.execute();
+    }
 
-            // Display results
-            displayResults(searchTerm, matchingProducts);
+    /**
+     * Read one end of the cost range
+     * @param field The field to read
+     * @param blank The value to use if the field is blank
+     * @return The cost entered, without any leading $
+     */
+    private static double parseCost(JTextField field, double blank) {
+        String text = field.getText().trim();
+        if (text.startsWith("$")) {
+            text = text.substring(1).trim();
+        }
+        return text.isEmpty() ? blank : Double.parseDouble(text);
+    }
 
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(this,
-                    "Error reading file: " + e.getMessage(),
-                    "File Error",
-                    JOptionPane.ERROR_MESSAGE);
+    /**
+     * Describe a search for the results label
+     */
+    private static String describeSearch(String searchTerm, double minCost, double maxCost) {
+        String costs;
+        if (minCost == Double.NEGATIVE_INFINITY && maxCost == Double.POSITIVE_INFINITY) {
+            return "\"" + searchTerm + "\"";
+        } else if (minCost == Double.NEGATIVE_INFINITY) {
+            costs = String.format("costing up to $%.2f", maxCost);
+        } else if (maxCost == Double.POSITIVE_INFINITY) {
+            costs = String.format("costing $%.2f or more", minCost);
+        } else {
+            costs = String.format("costing $%.2f to $%.2f", minCost, maxCost);
         }
+        return searchTerm.isEmpty() ? "products " + costs : "\"" + searchTerm + "\" " + costs;
     }
 
     /**
-     * Display search results in the text area
+     * Let the next search start, once a worker has stopped using the store and caches
      */
-    private void displayResults(String searchTerm, ArrayList<Product> products) {
-        resultsArea.setText("");
+    private void searchFinished() {
+        searching = false;
+        searchButton.setEnabled(true);
+    }
 
-        if (products.isEmpty()) {
-            resultsArea.append("No products found matching: \"" + searchTerm + "\"\n");
-            return;
+    /**
+     * Stop the running search, keeping the results found so far
+     */
+    private void cancelSearch() {
+        if (worker != null) {
+            worker.cancel(false);
         }
+    }
+
+    /**
+     * Searches the file on a background thread.
+     * The catalog is loaded into memory on the first search (later searches only load records
+     * added since), a block of records at a time, and each block is searched as soon as it is
+     * loaded. Each block's matches are published as record numbers and added to the table.
+     * Repeated name searches start from the query cache and only search records appended since.
+     * A search by cost alone takes its candidates from the cost index, so loading stops at the
+     * last record that can match.
+     */
+    private class SearchWorker extends SwingWorker<Integer, RecordList> {
+        private final String searchTerm;
+        private final double minCost;
+        private final double maxCost;
+        private final String description;
+        // Taken by the background work when it starts, or by done() if it was cancelled first,
+        // so that exactly one of them calls searchFinished()
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        SearchWorker(String searchTerm, double minCost, double maxCost, String description) {
+            this.searchTerm = searchTerm;
+            this.minCost = minCost;
+            this.maxCost = maxCost;
+            this.description = description;
+        }
+
+        @Override
+        protected Integer doInBackground() throws IOException {
+            if (!claimed.compareAndSet(false, true)) {
+                return 0;
+            }
+            try {
+                return search();
+            } finally {
+                SwingUtilities.invokeLater(RandProductSearch.this::searchFinished);
+            }
+        }
+
+        private int search() throws IOException {
+            cache.refresh(0);
+
+            int total = store.getRecordCount();
+            long modificationCount = store.getModificationCount();
+            int from = 0;
+            int found = 0;
+            RecordList costCandidates = null;
+            RecordList nameCandidates = null;
+            int nextCandidate = 0;
+            if (searchTerm.isEmpty()) {
+                ProductCostIndex index = store.getCostIndex();
+                index.update();
+                if (store.getModificationCount() != modificationCount) {
+                    throw new IOException("The product file changed during the search. Please search again.");
+                }
+                costCandidates = index.candidates(minCost, maxCost);
+                total = costCandidates.isEmpty() ? 0
+                        : Math.min(total, costCandidates.get(costCandidates.size() - 1) + 1);
+            } else {
+                RecordList known = withinCost(queryCache.getCached(searchTerm));
+                from = queryCache.getSearchedCount(searchTerm);
+                publish(known);
+                found = known.size();
+                // Looked up once, since the name index already covers every record searched below
+                if (from < total) {
+                    nameCandidates = queryCache.nameCandidates(searchTerm);
+                }
+            }
 
-        resultsArea.append("Search Results for: \"" + searchTerm + "\"\n");
-        resultsArea.append("Found " + products.size() + " matching product(s)\n");
-        resultsArea.append("=".repeat(80) + "\n\n");
+            for (; from < total && !isCancelled(); from += SEARCH_BLOCK_RECORDS) {
+                int to = Math.min(total, from + SEARCH_BLOCK_RECORDS);
+                if (cache.size() < to) {
+                    cache.refresh(to);
+                    if (store.getModificationCount() != modificationCount) {
+                        throw new IOException("The product file changed during the search. Please search again.");
+                    }
+                }
 
-        // Format header
-        resultsArea.append(String.format("%-8s %-35s %-40s %10s\n",
-                "ID", "Name", "Description", "Cost"));
-        resultsArea.append("-".repeat(80) + "\n");
+                RecordList matches;
+                if (costCandidates == null) {
+                    matches = queryCache.extend(searchTerm, to, nameCandidates);
+                } else {
+                    matches = new RecordList();
+                    while (nextCandidate < costCandidates.size() && costCandidates.get(nextCandidate) < to) {
+                        matches.add(costCandidates.get(nextCandidate++));
+                    }
+                }
+                matches = withinCost(matches);
+                publish(matches);
+                found += matches.size();
+                setProgress((int) (100L * to / total));
+            }
+            return found;
+        }
 
-        // Display each matching product
-        for (Product product : products) {
-            String name = product.getName();
-            String description = product.getDescription();
+        /**
+         * Keeps the records whose cost is in the range, checked against the cache
+         * since cost index entries are only hints
+         */
+        private RecordList withinCost(RecordList records) {
+            if (minCost == Double.NEGATIVE_INFINITY && maxCost == Double.POSITIVE_INFINITY) {
+                return records;
+            }
+            RecordList kept = new RecordList();
+            for (int i = 0; i < records.size(); i++) {
+                double cost = cache.getCost(records.get(i));
+                if (cost >= minCost && cost <= maxCost) {
+                    kept.add(records.get(i));
+                }
+            }
+            return kept;
+        }
 
-            // Truncate if too long for display
-            if (name.length() > 35) {
-                name = name.substring(0, 32) + "...";
+        @Override
+        protected void process(List<RecordList> batches) {
+            if (!isCancelled()) {
+                for (RecordList matches : batches) {
+                    resultsModel.addRecords(matches);
+                }
+                resultsLabel.setText("Search Results for: " + description + " - "
+                        + resultsModel.getRowCount() + " found so far");
             }
-            if (description.length() > 40) {
-                description = description.substring(0, 37) + "...";
+        }
+
+        @Override
+        protected void done() {
+            // A cancelled search may still be running; the Search button comes back when it stops
+            cancelButton.setEnabled(false);
+            if (claimed.compareAndSet(false, true)) {
+                searchFinished();
             }
 
-            resultsArea.append(String.format("%-8s %-35s %-40s $%9.2f\n",
-                    product.getID(),
-                    name,
-                    description,
-                    product.getCost()));
+            try {
+                int found = get();
+                progressBar.setValue(100);
+                if (found == 0) {
+                    resultsLabel.setText("No products found matching: " + description);
+                    return;
+                }
+                resultsLabel.setText("Search Results for: " + description + " - Found "
+                        + found + " matching product(s)");
+            } catch (CancellationException e) {
+                resultsLabel.setText("Search for " + description + " cancelled after "
+                        + resultsModel.getRowCount() + " matching product(s)");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                resultsModel.clear();
+                resultsLabel.setText(" ");
+                JOptionPane.showMessageDialog(RandProductSearch.this,
+                        "Error reading file: " + e.getCause().getMessage(),
+                        "File Error",
+                        JOptionPane.ERROR_MESSAGE);
+            }
         }
+    }
 
-        resultsArea.append("\n");
-        resultsArea.append("=".repeat(80) + "\n");
+    /**
+     * Shows costs as dollars, right-aligned
+     */
+    private static class CostRenderer extends DefaultTableCellRenderer {
+        private static final long serialVersionUID = 1L;
+
+        CostRenderer() {
+            setHorizontalAlignment(SwingConstants.RIGHT);
+        }
 
-        // Scroll to top
-        resultsArea.setCaretPosition(0);
+        @Override
+        protected void setValue(Object value) {
+            setText(value == null ? "" : String.format("$%.2f", (Double) value));
+        }
     }
 
     /**
@@ -193,6 +592,27 @@ public class RandProductSearch extends JFrame {
                 JOptionPane.YES_NO_OPTION);
 
         if (confirm == JOptionPane.YES_OPTION) {
+            cancelSearch();
+            suggester.shutdownNow();
+            try {
+                // A cancelled search may still be using the store, which exiting closes anyway
+                if (store != null && !searching) {
+                    store.close();
+                }
+                // Likewise the suggestion index, until the suggester thread has stopped
+                if (suggester.awaitTermination(1, TimeUnit.SECONDS)) {
+                    if (prefixIndex != null) {
+                        prefixIndex.close();
+                    }
+                    if (suggestStore != null) {
+                        suggestStore.close();
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
             System.exit(0);
         }
     }
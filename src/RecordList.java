@@ -0,0 +1,102 @@
+import java.util.Arrays;
+
+/**
+ * A growable list of record numbers kept in ascending order without boxing.
+ * Used by the product indexes to hold posting lists and query results.
+ */
+public class RecordList {
+    private int[] records;
+    private int size;
+
+    public RecordList() {
+        this(8);
+    }
+
+    public RecordList(int capacity) {
+        records = new int[Math.max(capacity, 1)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+        return records[index];
+    }
+
+    /**
+     * Adds a record number, keeping the list sorted and free of duplicates.
+     * Appending a number larger than the last one is O(1).
+     * @param recordNumber The record number to add
+     */
+    public void add(int recordNumber) {
+        if (size > 0 && recordNumber <= records[size - 1]) {
+            int index = Arrays.binarySearch(records, 0, size, recordNumber);
+            if (index >= 0) {
+                return;
+            }
+            insertAt(-index - 1, recordNumber);
+            return;
+        }
+        insertAt(size, recordNumber);
+    }
+
+    /**
+     * Returns true if the record number is in the list
+     * @param recordNumber The record number to look for
+     * @return true if found
+     */
+    public boolean contains(int recordNumber) {
+        return Arrays.binarySearch(records, 0, size, recordNumber) >= 0;
+    }
+
+    /**
+     * Returns the record numbers present in both lists
+     * @param other The list to intersect with
+     * @return A new list holding the common record numbers
+     */
+    public RecordList intersect(RecordList other) {
+        RecordList result = new RecordList(Math.min(size, other.size));
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            int a = records[i];
+            int b = other.records[j];
+            if (a < b) {
+                i++;
+            } else if (a > b) {
+                j++;
+            } else {
+                result.insertAt(result.size, a);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(records, size);
+    }
+
+    private void insertAt(int index, int recordNumber) {
+        if (size == records.length) {
+            records = Arrays.copyOf(records, size * 2);
+        }
+        System.arraycopy(records, index, records, index + 1, size - index);
+        records[index] = recordNumber;
+        size++;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
@@ -0,0 +1,52 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class CsvSplitterTest {
+    private static void assertSplitsLikeString(String line) {
+        String[] expected = line.split(",");
+        String[] fields = new String[8];
+        int count = CsvSplitter.split(line, fields);
+        assertEquals(expected.length, count, line);
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = expected[i].trim();
+        }
+        assertArrayEquals(expected, Arrays.copyOf(fields, count), line);
+    }
+
+    @Test
+    void splitsAndTrimsFields() {
+        assertSplitsLikeString("a, b ,c,d");
+        assertSplitsLikeString("a,,c,d");
+        assertSplitsLikeString(",b,c,d");
+    }
+
+    @Test
+    void dropsTrailingEmptyFields() {
+        assertSplitsLikeString("a,b,c,d,");
+        assertSplitsLikeString("a,b,c,d,,,");
+        assertSplitsLikeString(",,,");
+        assertEquals(4, CsvSplitter.split("a,b,c,d,", new String[8]));
+    }
+
+    @Test
+    void keepsTrailingBlankFields() {
+        assertSplitsLikeString("a,b,c,d, ");
+    }
+
+    @Test
+    void countsALineWithNoDelimiterAsOneField() {
+        assertSplitsLikeString("");
+        assertSplitsLikeString("abc");
+    }
+
+    @Test
+    void countsFieldsPastTheArray() {
+        String[] fields = new String[2];
+        assertEquals(4, CsvSplitter.split("a,b,c,d", fields));
+        assertArrayEquals(new String[] {"a", "b"}, fields);
+    }
+}
@@ -0,0 +1,66 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ProductLockFileTest {
+    @TempDir
+    Path dir;
+
+    private static Product product(int i) {
+        return new Product("Product " + i, "Description " + i, "ID" + i, i);
+    }
+
+    @Test
+    void keepsRecordsWrittenWithoutTheLockFile() throws IOException {
+        File dataFile = dir.resolve("ProductData.dat").toFile();
+        try (ProductStore store = new ProductStore(dataFile, "rw")) {
+            for (int i = 0; i < 5; i++) {
+                store.append(product(i));
+            }
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(dataFile, "rw")) {
+            raf.seek(raf.length());
+            for (int i = 5; i < 10; i++) {
+                product(i).writeToRandomFile(raf);
+            }
+        }
+
+        try (ProductStore store = new ProductStore(dataFile, "rw")) {
+            assertEquals(10, store.append(product(10)));
+            assertEquals(11, store.getRecordCount());
+            for (int i = 0; i <= 10; i++) {
+                assertEquals(product(i), store.read(i));
+            }
+        }
+    }
+
+    @Test
+    void keepsRecordsWrittenWithoutTheLockFileWhileOpen() throws IOException {
+        File dataFile = dir.resolve("ProductData.dat").toFile();
+        try (ProductStore store = new ProductStore(dataFile, "rw")) {
+            for (int i = 0; i < 5; i++) {
+                store.append(product(i));
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(dataFile, "rw")) {
+                raf.seek(raf.length());
+                for (int i = 5; i < 10; i++) {
+                    product(i).writeToRandomFile(raf);
+                }
+            }
+            assertEquals(10, store.append(product(10)));
+        }
+
+        try (ProductStore store = new ProductStore(dataFile, "rw")) {
+            assertEquals(11, store.getRecordCount());
+            for (int i = 0; i <= 10; i++) {
+                assertEquals(product(i), store.read(i));
+            }
+        }
+    }
+}